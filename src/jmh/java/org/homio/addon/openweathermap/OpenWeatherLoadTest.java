@@ -0,0 +1,198 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.SneakyThrows;
+import org.homio.addon.openweathermap.GeolocationCache.GeoPoint;
+import org.homio.addon.openweathermap.WeatherTick.TickResult;
+import org.homio.api.ContextVar.Variable;
+import org.homio.api.service.WeatherEntity.WeatherInfoType;
+
+/**
+ * Offline load test of refresh tick against OpenWeatherStubServer. Registers N variables and M
+ * widgets across K cities and runs WeatherTick, the same tick OpenWeatherService schedules: change
+ * detection, widget payload building and variable writes. Variables count written values, widget
+ * stores serialize payload as Homio does when sending it to UI.
+ *
+ * <p>mvn -Pbenchmark test-compile exec:exec
+ * -Dbenchmark.main=org.homio.addon.openweathermap.OpenWeatherLoadTest
+ * -Dbenchmark.args="variables=2000 widgets=200 cities=100 ticks=5 latency=50 quota=600"
+ *
+ * <p>api=onecall switches cache to One Call 3.0 endpoint. grid=degrees sets location grid, cities
+ * are spread over the globe, so only large grid merges them.
+ */
+public final class OpenWeatherLoadTest {
+
+  private static final WeatherInfoType[] TYPES = WeatherInfoType.values();
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      String[] pair = arg.split("=", 2);
+      options.put(pair[0], pair.length > 1 ? pair[1] : "");
+    }
+    int variables = Integer.parseInt(options.getOrDefault("variables", "1000"));
+    int widgets = Integer.parseInt(options.getOrDefault("widgets", "100"));
+    int cities = Integer.parseInt(options.getOrDefault("cities", "50"));
+    int ticks = Integer.parseInt(options.getOrDefault("ticks", "5"));
+
+    try (OpenWeatherStubServer server =
+        new OpenWeatherStubServer()
+            .withLatency(Duration.ofMillis(Long.parseLong(options.getOrDefault("latency", "20"))))
+            .withErrorRate(Double.parseDouble(options.getOrDefault("errors", "0")))
+            .withRateLimitRate(Double.parseDouble(options.getOrDefault("ratelimit", "0")), 1)) {
+      OpenWeatherCache cache =
+          new OpenWeatherCache(
+              new StubSettings(
+                  server.getUrl(),
+                  Integer.parseInt(options.getOrDefault("quota", "60000")),
+                  "onecall".equals(options.get("api")),
+                  Double.parseDouble(options.getOrDefault("grid", "0.05"))),
+              Files.createTempDirectory("owm-load-test"),
+              OpenWeatherLoadTest::geocode);
+      SimpleMeterRegistry registry = new SimpleMeterRegistry();
+      cache.bindMetrics(registry, Tags.of("entity", "load-test"));
+
+      AtomicLong setCalls = new AtomicLong();
+      Map<String, Map<WeatherInfoType, List<Variable>>> variablesByCity = new HashMap<>();
+      for (int i = 0; i < variables; i++) {
+        WeatherInfoType type = TYPES[i % TYPES.length];
+        variablesByCity
+            .computeIfAbsent("city-" + (i % cities), c -> new EnumMap<>(WeatherInfoType.class))
+            .computeIfAbsent(type, t -> new ArrayList<>())
+            .add(createVariable("var-" + i, setCalls));
+      }
+      Set<String> widgetCities = new HashSet<>();
+      for (int i = 0; i < widgets; i++) {
+        widgetCities.add("city-" + (i % cities));
+      }
+      Set<String> allCities = new HashSet<>(variablesByCity.keySet());
+      allCities.addAll(widgetCities);
+      WidgetProtocol widgetProtocol = new WidgetProtocol(cache::getIcon);
+      WeatherTick weatherTick =
+          new WeatherTick(cache, new ChangeDetector(), widgetProtocol, city -> city + "/metric/en");
+
+      // widgets subscribe as OpenWeatherService does it, concurrently with first tick
+      AtomicLong payloadBytes = new AtomicLong();
+      AtomicLong subscribePushes = new AtomicLong();
+      List<CompletableFuture<Void>> subscriptions = new ArrayList<>(widgets);
+      for (int i = 0; i < widgets; i++) {
+        String city = "city-" + (i % cities);
+        String widgetId = "widget-" + i;
+        Consumer<WidgetPayload> store =
+            payload -> payloadBytes.addAndGet(serialize(payload).length);
+        subscriptions.add(
+            cache
+                .getWeatherInfoAsync(city)
+                .thenAccept(
+                    info -> {
+                      if (widgetProtocol.subscribe(city + "/metric/en", widgetId, store, info)) {
+                        subscribePushes.incrementAndGet();
+                      }
+                    }));
+      }
+
+      System.out.printf(
+          "variables=%d widgets=%d cities=%d url=%s%n",
+          variables, widgets, allCities.size(), server.getUrl());
+      WeatherMetrics metrics = cache.getMetrics();
+      long totalNanos = 0;
+      long maxNanos = 0;
+      for (int tick = 1; tick <= ticks; tick++) {
+        long calls = server.getTotalCalls();
+        long writes = metrics.variableWrites.sum();
+        long pushes = metrics.widgetPushes.sum();
+        long bytes = payloadBytes.get();
+        long start = System.nanoTime();
+
+        TickResult result = weatherTick.runAll(variablesByCity, widgetCities);
+
+        long nanos = System.nanoTime() - start;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf(
+            "tick %d: %d ms, api calls: %d, variable writes: %d, widget pushes: %d (%d KB), "
+                + "cities without data: %d, heap used: %d MB%n",
+            tick,
+            nanos / 1_000_000,
+            server.getTotalCalls() - calls,
+            metrics.variableWrites.sum() - writes,
+            metrics.widgetPushes.sum() - pushes,
+            (payloadBytes.get() - bytes) / 1024,
+            result.withoutData(),
+            (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+      }
+      CompletableFuture.allOf(subscriptions.toArray(CompletableFuture[]::new)).join();
+      System.out.println("widget subscriptions: " + subscribePushes.get());
+      System.out.printf(
+          "avg tick: %d ms, max tick: %d ms, weather: %d, forecast: %d, group: %d, "
+              + "one call: %d, failed: %d, rate limited: %d%n",
+          totalNanos / ticks / 1_000_000,
+          maxNanos / 1_000_000,
+          server.weatherCalls.get(),
+          server.forecastCalls.get(),
+          server.groupCalls.get(),
+          server.oneCallCalls.get(),
+          server.failedCalls.get(),
+          server.rateLimitedCalls.get());
+      System.out.println("quota: " + cache.getQuotaUsage());
+      System.out.println("variable set calls: " + setCalls.get());
+      System.out.println("cache: " + cache.getCacheStats());
+      System.out.println("weather requests: " + metrics.weather);
+      System.out.println("group requests: " + metrics.group);
+      System.out.println("forecast requests: " + metrics.forecast);
+      System.out.println("one call requests: " + metrics.oneCall);
+      System.out.println("aggregation: " + metrics.aggregation);
+      System.out.println("meters: " + registry.getMeters().size());
+      cache.close();
+    }
+  }
+
+  // widget store sends payload to UI as json
+  @SneakyThrows
+  private static byte[] serialize(WidgetPayload payload) {
+    return OBJECT_MAPPER.writeValueAsBytes(payload);
+  }
+
+  // Homio variable of which only id and set are used by tick
+  private static Variable createVariable(String id, AtomicLong setCalls) {
+    return (Variable)
+        Proxy.newProxyInstance(
+            Variable.class.getClassLoader(),
+            new Class<?>[] {Variable.class},
+            (proxy, method, args) ->
+                switch (method.getName()) {
+                  case "getId", "toString" -> id;
+                  case "hashCode" -> id.hashCode();
+                  case "equals" -> proxy == args[0];
+                  case "set" -> {
+                    setCalls.incrementAndGet();
+                    yield null;
+                  }
+                  default -> throw new UnsupportedOperationException(method.getName());
+                });
+  }
+
+  // spread cities over the globe so every city has own OWM id
+  private static GeoPoint geocode(String city) {
+    int index = Integer.parseInt(city.substring(city.indexOf('-') + 1));
+    return new GeoPoint(-60 + (index * 0.731) % 120, -180 + (index * 1.377) % 360);
+  }
+}
@@ -0,0 +1,59 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Decoding of OWM responses. Tree benchmarks are the baseline of former Curl/JsonNode path. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Benchmark
+  public CurrentWeather parseCurrentWeather() throws IOException {
+    return OpenWeatherParser.parseCurrentWeather(Fixtures.stream(Fixtures.WEATHER));
+  }
+
+  @Benchmark
+  public List<CurrentWeather> parseCurrentWeatherGroup() throws IOException {
+    return OpenWeatherParser.parseCurrentWeatherGroup(Fixtures.stream(Fixtures.GROUP));
+  }
+
+  @Benchmark
+  public ForecastData parseForecast() throws IOException {
+    return OpenWeatherParser.parseForecast(Fixtures.stream(Fixtures.FORECAST));
+  }
+
+  // current + hourly + daily of One Call 3.0, replaces parseCurrentWeather + parseForecast
+  @Benchmark
+  public OpenWeatherParser.OneCall parseOneCall() throws IOException {
+    return OpenWeatherParser.parseOneCall(Fixtures.stream(Fixtures.ONE_CALL), "London");
+  }
+
+  @Benchmark
+  public JsonNode readCurrentWeatherTree() throws IOException {
+    return objectMapper.readTree(Fixtures.stream(Fixtures.WEATHER));
+  }
+
+  @Benchmark
+  public JsonNode readForecastTree() throws IOException {
+    return objectMapper.readTree(Fixtures.stream(Fixtures.FORECAST));
+  }
+}
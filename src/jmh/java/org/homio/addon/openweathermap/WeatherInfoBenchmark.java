@@ -0,0 +1,99 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.homio.api.service.WeatherEntity.WeatherInfo;
+import org.homio.api.service.WeatherEntity.WeatherInfo.DailyForecast;
+import org.homio.api.service.WeatherEntity.WeatherInfoType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Building of WeatherInfo/forecast for widgets and variable values from decoded snapshots. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WeatherInfoBenchmark {
+
+  private CurrentWeather weather;
+  private ForecastData forecast;
+  private JsonNode forecastList;
+  private WeatherInfo info;
+  private OpenWeatherParser.OneCall oneCall;
+  private WeatherInfo oneCallInfo;
+
+  @Setup
+  public void setup() throws IOException {
+    weather = OpenWeatherParser.parseCurrentWeather(Fixtures.stream(Fixtures.WEATHER));
+    forecast = OpenWeatherParser.parseForecast(Fixtures.stream(Fixtures.FORECAST));
+    forecastList = new ObjectMapper().readTree(Fixtures.FORECAST).get("list");
+    info = OpenWeatherCache.toWeatherInfo(weather, null);
+    oneCall = OpenWeatherParser.parseOneCall(Fixtures.stream(Fixtures.ONE_CALL), "London");
+    oneCallInfo = OpenWeatherCache.toWeatherInfo(oneCall.current(), null);
+  }
+
+  // readWeather(city, null) on snapshot change
+  @Benchmark
+  public WeatherInfo readWeather() {
+    return OpenWeatherCache.toWeatherInfo(weather, forecast);
+  }
+
+  @Benchmark
+  public List<DailyForecast> aggregateForecast() {
+    return ForecastAggregator.aggregate(forecast, info);
+  }
+
+  // baseline: aggregation before ForecastAggregator, on cached forecast 'list' node
+  @Benchmark
+  public List<DailyForecast> aggregateForecastLegacy() {
+    return LegacyForecastAggregator.processForecast(forecastList, info, ZoneId.systemDefault());
+  }
+
+  @Benchmark
+  public WeatherInfo readWeatherOneCall() {
+    return OpenWeatherCache.toWeatherInfo(oneCall.current(), oneCall.forecast());
+  }
+
+  // daily summaries come from One Call, hourly entries are only grouped by day
+  @Benchmark
+  public List<DailyForecast> aggregateOneCallForecast() {
+    return ForecastAggregator.aggregate(oneCall.forecast(), oneCallInfo);
+  }
+
+  // readWeather(Variable)
+  @Benchmark
+  public double readVariableValue(VariableType variable) {
+    return OpenWeatherCache.readValue(weather, variable.type);
+  }
+
+  @State(Scope.Benchmark)
+  public static class VariableType {
+
+    @Param({
+      "Temperature",
+      "Pressure",
+      "Humidity",
+      "WindSpeed",
+      "WindDegree",
+      "FeelsLike",
+      "Visibility",
+      "Clouds"
+    })
+    public WeatherInfoType type;
+  }
+}
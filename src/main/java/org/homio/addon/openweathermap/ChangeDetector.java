@@ -0,0 +1,58 @@
+package org.homio.addon.openweathermap;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.service.WeatherEntity.WeatherInfoType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Remembers value last written to every variable, so unchanged data is not written again. Values
+ * are compared against last written value with optional deadband.
+ */
+@Log4j2
+class ChangeDetector {
+
+  private final Map<String, Double> values = new ConcurrentHashMap<>();
+
+  /**
+   * Parse deadbands in form 'Temperature:0.1, FeelsLike:0.1'. Invalid entries are skipped.
+   */
+  static @NotNull Map<WeatherInfoType, Double> parseDeadbands(String spec) {
+    Map<WeatherInfoType, Double> result = new EnumMap<>(WeatherInfoType.class);
+    if (spec == null || spec.isBlank()) {
+      return result;
+    }
+    for (String item : spec.split("[,;]")) {
+      String[] pair = item.split(":", 2);
+      try {
+        result.put(
+            WeatherInfoType.valueOf(pair[0].trim()), Math.abs(Double.parseDouble(pair[1].trim())));
+      } catch (RuntimeException ex) {
+        log.warn("Skip invalid weather deadband: '{}'", item.trim());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param deadband - changes smaller than this are ignored. Compared against last written value,
+   *     so slow drift is written once it accumulates
+   * @return true if value has to be written
+   */
+  boolean valueChanged(String listener, double value, double deadband) {
+    Double last = values.get(listener);
+    return last == null
+        || (Double.compare(last, value) != 0 && Math.abs(value - last) >= deadband);
+  }
+
+  /** Remember value once it's actually written, failed write is retried with next refresh */
+  void written(String listener, double value) {
+    values.put(listener, value);
+  }
+
+  void remove(String listener) {
+    values.remove(listener);
+  }
+}
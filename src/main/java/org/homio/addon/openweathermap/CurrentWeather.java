@@ -0,0 +1,27 @@
+package org.homio.addon.openweathermap;
+
+/**
+ * Fields of OWM current weather response used by addon.
+ *
+ * @param id - OWM city id
+ * @param dt - epoch seconds of measurement
+ */
+record CurrentWeather(
+    long id,
+    long dt,
+    String city,
+    double temperature,
+    double feelsLike,
+    double minTemperature,
+    double maxTemperature,
+    double pressure,
+    double humidity,
+    double visibility,
+    double windSpeed,
+    double windDegree,
+    double clouds,
+    double rain,
+    long sunrise,
+    long sunset,
+    String icon,
+    String condition) {}
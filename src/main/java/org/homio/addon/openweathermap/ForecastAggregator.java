@@ -0,0 +1,274 @@
+package org.homio.addon.openweathermap;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.TextStyle;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import org.homio.api.service.WeatherEntity.WeatherInfo;
+import org.homio.api.service.WeatherEntity.WeatherInfo.DailyForecast;
+import org.homio.api.service.WeatherEntity.WeatherInfo.HourWeatherInfo;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Single pass aggregation of 3 hour forecast entries into daily forecasts. Entries must be ordered
+ * by dt, as OWM returns them. One Call 3.0 forecast already has daily summaries, hourly entries are
+ * only grouped by day then.
+ */
+final class ForecastAggregator {
+
+  private static final String DEFAULT_ICON = "01d";
+  private static final String DEFAULT_CONDITION = "Unknown";
+  private static final int SECONDS_PER_DAY = 86400;
+
+  // icon prefixes from most to least important
+  private static final String[] WEATHER_PRIORITY = {
+    "11", // Thunderstorm
+    "09",
+    "10", // Rain
+    "13", // Snow
+    "50", // Mist/Fog
+    "04",
+    "03",
+    "02", // Clouds
+    "01" // Clear
+  };
+
+  // weight of forecast entry by local hour of day
+  private static final double[] HOUR_WEIGHTS = new double[24];
+
+  private static final String[] DAY_NAMES = new String[7];
+
+  static {
+    Arrays.fill(HOUR_WEIGHTS, 0.5); // Night and evening
+    HOUR_WEIGHTS[6] = 0.75; // Morning
+    HOUR_WEIGHTS[9] = 1.0;
+    HOUR_WEIGHTS[12] = 1.0;
+    HOUR_WEIGHTS[15] = 1.0; // Day
+    HOUR_WEIGHTS[18] = 0.75;
+
+    Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+    for (DayOfWeek day : DayOfWeek.values()) {
+      DAY_NAMES[day.ordinal()] = day.getDisplayName(TextStyle.SHORT, locale);
+    }
+  }
+
+  // per day accumulators, reused between days
+  private final String[] icons = new String[8];
+  private final int[] iconPriorities = new int[8];
+  private final double[] iconWeights = new double[8];
+  private final String[] conditions = new String[8];
+  private final double[] conditionWeights = new double[8];
+  private final ZoneRules rules;
+  private int iconCount;
+  private int conditionCount;
+
+  private ForecastAggregator(ZoneRules rules) {
+    this.rules = rules;
+  }
+
+  /**
+   * @param current - current weather. Overrides icon/condition and extends min/max of today
+   */
+  static @NotNull List<DailyForecast> aggregate(
+      @NotNull ForecastData data, @NotNull WeatherInfo current) {
+    return aggregate(data, current, ZoneId.systemDefault());
+  }
+
+  /** @param zone - days are split at local midnight of zone */
+  static @NotNull List<DailyForecast> aggregate(
+      @NotNull ForecastData data, @NotNull WeatherInfo current, @NotNull ZoneId zone) {
+    ForecastAggregator aggregator = new ForecastAggregator(zone.getRules());
+    return data.daily == null
+        ? aggregator.aggregateDays(data, current)
+        : aggregator.groupDays(data, data.daily, current);
+  }
+
+  private List<DailyForecast> groupDays(
+      ForecastData hourly, ForecastData daily, WeatherInfo current) {
+    List<DailyForecast> result = new ArrayList<>(daily.size);
+    long today = toLocalEpochDay(Math.floorDiv(current.getDt(), 1000));
+    int hour = 0;
+    for (int i = 0; i < daily.size; i++) {
+      long day = toLocalEpochDay(daily.dt[i]);
+      while (hour < hourly.size && toLocalEpochDay(hourly.dt[hour]) < day) {
+        hour++;
+      }
+      LinkedHashMap<Long, HourWeatherInfo> hours = new LinkedHashMap<>(32);
+      for (; hour < hourly.size && toLocalEpochDay(hourly.dt[hour]) == day; hour++) {
+        hours.put(hourly.dt[hour] * 1000, toHourWeatherInfo(hourly, hour));
+      }
+      String icon = daily.icon[i] == null ? DEFAULT_ICON : daily.icon[i];
+      String condition = daily.icon[i] == null ? DEFAULT_CONDITION : daily.condition[i];
+      double minTemp = daily.tempMin[i];
+      double maxTemp = daily.tempMax[i];
+      if (day == today) {
+        maxTemp = Math.max(maxTemp, current.getMaxTemperature());
+        minTemp = Math.min(minTemp, current.getMinTemperature());
+        icon = current.getIcon();
+        condition = current.getCondition();
+      }
+      result.add(
+          new DailyForecast(
+              daily.dt[i] * 1000, getDayName(day), icon, minTemp, maxTemp, condition, hours));
+    }
+    return result;
+  }
+
+  private List<DailyForecast> aggregateDays(ForecastData data, WeatherInfo current) {
+    List<DailyForecast> result = new ArrayList<>(6);
+    long today = toLocalEpochDay(Math.floorDiv(current.getDt(), 1000));
+
+    long day = Long.MIN_VALUE;
+    long dayDt = 0;
+    double minTemp = 0;
+    double maxTemp = 0;
+    LinkedHashMap<Long, HourWeatherInfo> hours = null;
+
+    for (int i = 0; i < data.size; i++) {
+      long localSeconds = data.dt[i] + offsetSeconds(data.dt[i]);
+      long entryDay = Math.floorDiv(localSeconds, SECONDS_PER_DAY);
+      if (entryDay != day) {
+        if (hours != null) {
+          result.add(toDailyForecast(day, dayDt, minTemp, maxTemp, hours, day == today, current));
+        }
+        day = entryDay;
+        dayDt = data.dt[i] * 1000;
+        minTemp = Double.MAX_VALUE;
+        maxTemp = Double.MIN_VALUE;
+        hours = new LinkedHashMap<>(16);
+        iconCount = 0;
+        conditionCount = 0;
+      }
+
+      int hour = (int) (Math.floorMod(localSeconds, SECONDS_PER_DAY) / 3600);
+      double weight = HOUR_WEIGHTS[hour];
+      String icon = data.icon[i];
+      addIconWeight(icon == null ? DEFAULT_ICON : icon, weight);
+      addConditionWeight(icon == null ? DEFAULT_CONDITION : data.condition[i], weight);
+
+      hours.put(data.dt[i] * 1000, toHourWeatherInfo(data, i));
+      minTemp = Math.min(minTemp, data.tempMin[i]);
+      maxTemp = Math.max(maxTemp, data.tempMax[i]);
+    }
+    if (hours != null) {
+      result.add(toDailyForecast(day, dayDt, minTemp, maxTemp, hours, day == today, current));
+    }
+    return result;
+  }
+
+  private DailyForecast toDailyForecast(
+      long day,
+      long dt,
+      double minTemp,
+      double maxTemp,
+      LinkedHashMap<Long, HourWeatherInfo> hours,
+      boolean today,
+      WeatherInfo current) {
+    String icon = determinePrioritizedIcon();
+    String condition = getMostFrequentCondition();
+    if (today) {
+      maxTemp = Math.max(maxTemp, current.getMaxTemperature());
+      minTemp = Math.min(minTemp, current.getMinTemperature());
+      icon = current.getIcon();
+      condition = current.getCondition();
+    }
+    return new DailyForecast(dt, getDayName(day), icon, minTemp, maxTemp, condition, hours);
+  }
+
+  private static HourWeatherInfo toHourWeatherInfo(ForecastData data, int i) {
+    return new HourWeatherInfo(
+        data.tempMin[i],
+        data.tempMax[i],
+        data.temp[i],
+        data.feelsLike[i],
+        data.humidity[i],
+        data.pressure[i],
+        data.windSpeed[i],
+        data.windDegree[i],
+        data.icon[i] == null ? DEFAULT_ICON : data.icon[i],
+        data.description[i] == null ? "" : data.description[i],
+        data.dt[i] * 1000);
+  }
+
+  private static String getDayName(long epochDay) {
+    // 1970-01-01 is Thursday
+    return DAY_NAMES[(int) Math.floorMod(epochDay + 3, 7)];
+  }
+
+  private String determinePrioritizedIcon() {
+    int best = -1;
+    for (int i = 0; i < iconCount; i++) {
+      int priority = iconPriorities[i];
+      if (priority >= 0
+          && (best == -1
+              || priority < iconPriorities[best]
+              || (priority == iconPriorities[best] && iconWeights[i] > iconWeights[best]))) {
+        best = i;
+      }
+    }
+    return best == -1 ? DEFAULT_ICON : icons[best];
+  }
+
+  private String getMostFrequentCondition() {
+    int best = -1;
+    for (int i = 0; i < conditionCount; i++) {
+      if (best == -1 || conditionWeights[i] > conditionWeights[best]) {
+        best = i;
+      }
+    }
+    return best == -1 ? DEFAULT_CONDITION : conditions[best];
+  }
+
+  private void addIconWeight(String icon, double weight) {
+    for (int i = 0; i < iconCount; i++) {
+      if (icons[i].equals(icon)) {
+        iconWeights[i] += weight;
+        return;
+      }
+    }
+    if (iconCount < icons.length) {
+      icons[iconCount] = icon;
+      iconPriorities[iconCount] = getIconPriority(icon);
+      iconWeights[iconCount++] = weight;
+    }
+  }
+
+  private void addConditionWeight(String condition, double weight) {
+    for (int i = 0; i < conditionCount; i++) {
+      if (conditions[i].equals(condition)) {
+        conditionWeights[i] += weight;
+        return;
+      }
+    }
+    if (conditionCount < conditions.length) {
+      conditions[conditionCount] = condition;
+      conditionWeights[conditionCount++] = weight;
+    }
+  }
+
+  private static int getIconPriority(String icon) {
+    for (int i = 0; i < WEATHER_PRIORITY.length; i++) {
+      if (icon.startsWith(WEATHER_PRIORITY[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private long toLocalEpochDay(long epochSeconds) {
+    return Math.floorDiv(epochSeconds + offsetSeconds(epochSeconds), SECONDS_PER_DAY);
+  }
+
+  private int offsetSeconds(long epochSeconds) {
+    if (rules.isFixedOffset()) {
+      return rules.getOffset(Instant.EPOCH).getTotalSeconds();
+    }
+    return rules.getOffset(Instant.ofEpochSecond(epochSeconds)).getTotalSeconds();
+  }
+}
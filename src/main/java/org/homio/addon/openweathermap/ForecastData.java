@@ -0,0 +1,65 @@
+package org.homio.addon.openweathermap;
+
+import java.util.Arrays;
+
+/**
+ * Compact column-oriented representation of OWM 5 day/3 hour forecast 'list' or One Call 3.0
+ * 'hourly' entries.
+ */
+final class ForecastData {
+
+  int size;
+  // epoch seconds, ascending
+  long[] dt;
+  double[] temp;
+  double[] tempMin;
+  double[] tempMax;
+  double[] feelsLike;
+  double[] humidity;
+  double[] pressure;
+  double[] windSpeed;
+  double[] windDegree;
+  // null if entry has no 'weather' item
+  String[] icon;
+  String[] condition;
+  String[] description;
+  // One Call 3.0 'daily' summaries in the same columns, 'temp' is day temperature. Null for 2.5
+  ForecastData daily;
+
+  ForecastData(int capacity) {
+    this.dt = new long[capacity];
+    this.temp = new double[capacity];
+    this.tempMin = new double[capacity];
+    this.tempMax = new double[capacity];
+    this.feelsLike = new double[capacity];
+    this.humidity = new double[capacity];
+    this.pressure = new double[capacity];
+    this.windSpeed = new double[capacity];
+    this.windDegree = new double[capacity];
+    this.icon = new String[capacity];
+    this.condition = new String[capacity];
+    this.description = new String[capacity];
+  }
+
+  /**
+   * @return index of new entry
+   */
+  int add() {
+    if (size == dt.length) {
+      int capacity = Math.max(8, size * 2);
+      dt = Arrays.copyOf(dt, capacity);
+      temp = Arrays.copyOf(temp, capacity);
+      tempMin = Arrays.copyOf(tempMin, capacity);
+      tempMax = Arrays.copyOf(tempMax, capacity);
+      feelsLike = Arrays.copyOf(feelsLike, capacity);
+      humidity = Arrays.copyOf(humidity, capacity);
+      pressure = Arrays.copyOf(pressure, capacity);
+      windSpeed = Arrays.copyOf(windSpeed, capacity);
+      windDegree = Arrays.copyOf(windDegree, capacity);
+      icon = Arrays.copyOf(icon, capacity);
+      condition = Arrays.copyOf(condition, capacity);
+      description = Arrays.copyOf(description, capacity);
+    }
+    return size++;
+  }
+}
@@ -0,0 +1,144 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * City coordinates practically never change, so keep them on disk instead of re-geocoding. Weather
+ * is cached per location key: coordinates snapped to grid, so nearby cities share one fetch.
+ */
+@Log4j2
+class GeolocationCache {
+
+  private final Map<String, GeoPoint> cache = new ConcurrentHashMap<>();
+  // normalized city -> geocoding in progress
+  private final Map<String, CompletableFuture<GeoPoint>> resolving = new ConcurrentHashMap<>();
+  private final AtomicBoolean saveScheduled = new AtomicBoolean();
+  private final Path file;
+  private final Executor saveExecutor;
+
+  GeolocationCache(Path file, Executor saveExecutor) {
+    this.file = file;
+    this.saveExecutor = saveExecutor;
+    load();
+  }
+
+  static String normalizeCity(@NotNull String city) {
+    return city.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * @param grid - cell size in degrees, 0 keeps exact coordinates
+   * @return 'lat,lon' of grid cell center
+   */
+  static @NotNull String toLocationKey(@NotNull GeoPoint point, double grid) {
+    double lat = point.lat();
+    double lon = point.lon();
+    if (grid > 0) {
+      lat = Math.round(lat / grid) * grid;
+      lon = Math.round(lon / grid) * grid;
+    }
+    return String.format(Locale.ROOT, "%.4f,%.4f", lat, lon);
+  }
+
+  /** @return coordinates of location key or null if key is not in 'lat,lon' form */
+  static @Nullable GeoPoint parseLocationKey(@NotNull String key) {
+    int index = key.indexOf(',');
+    if (index > 0) {
+      try {
+        return new GeoPoint(
+            Double.parseDouble(key.substring(0, index)),
+            Double.parseDouble(key.substring(index + 1)));
+      } catch (NumberFormatException ignore) {
+        // not a location key
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param resolver - called by first caller of not cached city, concurrent callers of the same
+   *     city wait for it's result instead of geocoding it again
+   */
+  @SneakyThrows
+  public @NotNull GeoPoint get(
+      @NotNull String city, @NotNull Function<String, GeoPoint> resolver) {
+    String key = normalizeCity(city);
+    GeoPoint point = cache.get(key);
+    if (point != null) {
+      return point;
+    }
+    CompletableFuture<GeoPoint> resolve = new CompletableFuture<>();
+    CompletableFuture<GeoPoint> inFlight = resolving.putIfAbsent(key, resolve);
+    if (inFlight != null) {
+      try {
+        return inFlight.join();
+      } catch (CompletionException ex) {
+        throw ex.getCause();
+      }
+    }
+    try {
+      // resolved by other caller between cache read and registration
+      point = cache.get(key);
+      if (point == null) {
+        point = resolver.apply(city);
+        cache.put(key, point);
+        scheduleSave();
+      }
+      resolve.complete(point);
+      return point;
+    } catch (Throwable ex) {
+      resolve.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      resolving.remove(key, resolve);
+    }
+  }
+
+  private void load() {
+    if (!Files.exists(file)) {
+      return;
+    }
+    try {
+      cache.putAll(
+          JsonFiles.OBJECT_MAPPER.readValue(
+              file.toFile(), new TypeReference<Map<String, GeoPoint>>() {}));
+    } catch (Exception ex) {
+      log.warn("Unable to read geolocation cache: {}", file, ex);
+    }
+  }
+
+  // coalesce multiple new cities into single write
+  private void scheduleSave() {
+    if (saveScheduled.compareAndSet(false, true)) {
+      saveExecutor.execute(
+          () -> {
+            saveScheduled.set(false);
+            save();
+          });
+    }
+  }
+
+  private void save() {
+    try {
+      JsonFiles.writeJsonAtomically(file, cache);
+    } catch (Exception ex) {
+      log.warn("Unable to save geolocation cache: {}", file, ex);
+    }
+  }
+
+  record GeoPoint(double lat, double lon) {}
+}
@@ -0,0 +1,142 @@
+package org.homio.addon.openweathermap;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Weather icons handed to widgets as data uris, so browsers never load them from
+ * openweathermap.org. All 18 icons are bundled in the jar under /icons and work offline. If refresh
+ * is enabled, icons are also downloaded once from OWM CDN to disk and replace bundled ones.
+ */
+@Log4j2
+class IconCache {
+
+  private static final String ICON_URL = "https://openweathermap.org/img/wn/%s.png";
+
+  private static final String ICON_RESOURCE = "/icons/%s.png";
+
+  private static final List<String> ICONS =
+      List.of(
+          "01d", "01n", "02d", "02n", "03d", "03n", "04d", "04n", "09d", "09n", "10d", "10n",
+          "11d", "11n", "13d", "13n", "50d", "50n");
+
+  // icon code as received from OWM, guards file names against unexpected values
+  private static final Pattern ICON_PATTERN = Pattern.compile("\\d{2}[dn]");
+
+  private static final long RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+  private final Path directory;
+  private final OpenWeatherClient client;
+  private final Executor executor;
+  private final BooleanSupplier refresh;
+  // icon code -> data uri
+  private final Map<String, String> dataUris = new ConcurrentHashMap<>();
+  // icon code -> time of last download attempt, prevents hammering CDN while offline
+  private final Map<String, Long> downloads = new ConcurrentHashMap<>();
+
+  /** @param refresh - download icons from OWM CDN over bundled ones */
+  IconCache(Path directory, OpenWeatherClient client, Executor executor, BooleanSupplier refresh) {
+    this.directory = directory;
+    this.client = client;
+    this.executor = executor;
+    this.refresh = refresh;
+  }
+
+  /** Download all icons which are not on disk yet, if refresh is enabled */
+  void prefetch() {
+    if (!refresh.getAsBoolean()) {
+      return;
+    }
+    for (String icon : ICONS) {
+      if (!Files.exists(getFile(icon))) {
+        download(icon);
+      }
+    }
+  }
+
+  /** @return data uri of icon or null if icon is unknown */
+  @Nullable
+  String get(@Nullable String icon) {
+    if (icon == null || !ICON_PATTERN.matcher(icon).matches()) {
+      return null;
+    }
+    String dataUri = dataUris.get(icon);
+    if (dataUri == null) {
+      dataUri = refresh.getAsBoolean() ? readDownloaded(icon) : null;
+      if (dataUri == null) {
+        dataUri = readBundled(icon);
+      }
+      if (dataUri != null) {
+        dataUris.putIfAbsent(icon, dataUri);
+      }
+    }
+    return dataUri;
+  }
+
+  private @Nullable String readBundled(String icon) {
+    try (InputStream stream = IconCache.class.getResourceAsStream(ICON_RESOURCE.formatted(icon))) {
+      return stream == null ? null : toDataUri(stream.readAllBytes());
+    } catch (Exception ex) {
+      log.warn("Unable to read bundled weather icon: {}", icon, ex);
+      return null;
+    }
+  }
+
+  private @Nullable String readDownloaded(String icon) {
+    Path file = getFile(icon);
+    if (!Files.exists(file)) {
+      download(icon);
+      return null;
+    }
+    try {
+      return toDataUri(Files.readAllBytes(file));
+    } catch (Exception ex) {
+      log.warn("Unable to read weather icon: {}", file, ex);
+      return null;
+    }
+  }
+
+  private void download(String icon) {
+    long now = System.currentTimeMillis();
+    Long attemptedAt = downloads.get(icon);
+    boolean due =
+        attemptedAt == null
+            ? downloads.putIfAbsent(icon, now) == null
+            : now - attemptedAt >= RETRY_INTERVAL && downloads.replace(icon, attemptedAt, now);
+    if (!due) {
+      return;
+    }
+    executor.execute(
+        () -> {
+          Path file = getFile(icon);
+          try {
+            byte[] bytes = client.get(ICON_URL.formatted(icon), stream -> stream.readAllBytes());
+            JsonFiles.writeAtomically(file, bytes);
+            // widgets which got bundled icon already keep it until reload
+            dataUris.put(icon, toDataUri(bytes));
+          } catch (Exception ex) {
+            log.warn("Unable to download weather icon: {}. {}", icon, ex.getMessage());
+          }
+        });
+  }
+
+  private Path getFile(String icon) {
+    return directory.resolve(icon + ".png");
+  }
+
+  private static @NotNull String toDataUri(byte[] bytes) {
+    return "data:image/png;base64," + Base64.getEncoder().encodeToString(bytes);
+  }
+}
@@ -0,0 +1,40 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.jetbrains.annotations.NotNull;
+
+/** Files which addon keeps in it's storage directory: geolocation, snapshot, index, history. */
+final class JsonFiles {
+
+  // shared by all json files and widget payloads of addon
+  static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private JsonFiles() {}
+
+  /** Write json through temporary sibling file, readers never see partially written file */
+  static void writeJsonAtomically(@NotNull Path file, @NotNull Object value) throws IOException {
+    Path tmpFile = createTmpFile(file);
+    OBJECT_MAPPER.writeValue(tmpFile.toFile(), value);
+    replace(tmpFile, file);
+  }
+
+  /** Write bytes through temporary sibling file, readers never see partially written file */
+  static void writeAtomically(@NotNull Path file, byte[] bytes) throws IOException {
+    Path tmpFile = createTmpFile(file);
+    Files.write(tmpFile, bytes);
+    replace(tmpFile, file);
+  }
+
+  private static Path createTmpFile(Path file) throws IOException {
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    return file.resolveSibling(file.getFileName() + ".tmp");
+  }
+
+  private static void replace(Path tmpFile, Path file) throws IOException {
+    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,833 @@
+package org.homio.addon.openweathermap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.text.StringSubstitutor;
+import org.homio.addon.openweathermap.GeolocationCache.GeoPoint;
+import org.homio.addon.openweathermap.OpenWeatherParser.OneCall;
+import org.homio.addon.openweathermap.QuotaManager.RequestRejectedException;
+import org.homio.addon.openweathermap.WeatherMetrics.Latency;
+import org.homio.api.service.WeatherEntity.WeatherInfo;
+import org.homio.api.service.WeatherEntity.WeatherInfoType;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Per-location weather snapshots and the pipeline which fetches them. Has no dependency on Homio
+ * context, so it's driven by OpenWeatherService as well as by offline load tests.
+ *
+ * <p>Public methods accept city names. Internally everything is keyed by location key (geocoded
+ * coordinates snapped to grid, see {@link GeolocationCache#toLocationKey}), so 'London', 'london'
+ * and nearby suburbs share one fetch, one parsed snapshot and one history.
+ */
+@Log4j2
+class OpenWeatherCache {
+
+  private static final String WEATHER_URL =
+      "${url}/data/2.5/weather?lat=${lat}&lon=${lon}&appid=${key}&units=${unit}&lang=${lang}";
+
+  private static final String FORECAST_URL =
+      "${url}/data/2.5/forecast?lat=${lat}&lon=${lon}&appid=${key}&units=${unit}&lang=${lang}";
+
+  private static final String ONE_CALL_URL =
+      "${url}/data/3.0/onecall?lat=${lat}&lon=${lon}&exclude=minutely,alerts&appid=${key}"
+          + "&units=${unit}&lang=${lang}";
+
+  private static final String GROUP_URL =
+      "${url}/data/2.5/group?id=${ids}&appid=${key}&units=${unit}&lang=${lang}";
+
+  // max number of city ids allowed by OWM in single group request
+  private static final int GROUP_SIZE = 20;
+
+  // max number of simultaneous http requests to OWM/geolocation
+  private static final int MAX_PARALLEL_REQUESTS = 8;
+
+  // 5 day/3 hour forecast is recalculated by OWM few times per day, no reason to poll it often
+  private static final int MIN_FORECAST_REFRESH_MINUTES = 60;
+
+  private static final long HISTORY_COMPACT_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+  private static final long SNAPSHOT_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+  // WeatherInfoType -> CurrentWeather field, resolved once per type instead of per variable
+  private static final Map<WeatherInfoType, ToDoubleFunction<CurrentWeather>> VALUE_READERS =
+      createValueReaders();
+
+  private final Settings settings;
+  private final WeatherMetrics metrics = new WeatherMetrics();
+  private final OpenWeatherClient client = new OpenWeatherClient();
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final Semaphore requestLimiter = new Semaphore(MAX_PARALLEL_REQUESTS);
+  private final QuotaManager quotaManager;
+  private final GeolocationCache geolocationCache;
+  private final IconCache iconCache;
+  private final Function<String, GeoPoint> geocoder;
+  // city as passed by callers -> location key, cleared once grid changes
+  private final Map<String, String> locationKeys = new ConcurrentHashMap<>();
+  // location -> first city resolved to it. One Call responses have no city name
+  private final Map<String, String> locationNames = new ConcurrentHashMap<>();
+  private volatile double locationGrid;
+  // location -> OWM city id. Learned from single location responses and used for group requests
+  private final Map<String, Long> cityIds = new ConcurrentHashMap<>();
+  // refreshed by scheduler, entries older than max staleness are dropped and must be reloaded
+  // synchronously
+  private final Cache<String, CurrentWeather> dataCache;
+  // location -> time weather/forecast was stored. Age is checked against settings on every read,
+  // so refresh rate and max staleness apply without rebuilding caches
+  private final Map<String, Long> weatherStoredAt = new ConcurrentHashMap<>();
+  private final Map<String, Long> forecastStoredAt = new ConcurrentHashMap<>();
+  private final RefreshScheduler scheduler;
+  private final WeatherHistory history;
+  private volatile long historyCompactedAt;
+  // warm start data, saved periodically and on close
+  private final Path snapshotFile;
+  private final ReentrantLock snapshotLock = new ReentrantLock();
+  private volatile long snapshotSavedAt;
+  private final boolean restored;
+  private MeterRegistry meterRegistry;
+  private Tags meterTags;
+  // forecast per location. Loaded only for widgets/api calls and lives on own slower schedule
+  private final Cache<String, ForecastData> forecastCache;
+  // parsed WeatherInfo per location, valid while the same weather/forecast snapshots are cached
+  private final Map<String, ParsedWeather> parsedCache = new ConcurrentHashMap<>();
+  // in flight loads of absent locations, concurrent readers wait for single request
+  private final Map<String, CompletableFuture<CurrentWeather>> weatherLoads =
+      new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<ForecastData>> forecastLoads =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param storagePath - directory for persistent addon data
+   * @param geocoder - resolve city coordinates if they are not cached yet
+   */
+  OpenWeatherCache(Settings settings, Path storagePath, Function<String, GeoPoint> geocoder) {
+    this.settings = settings;
+    this.geocoder = geocoder;
+    this.quotaManager =
+        new QuotaManager(
+            settings::getCallsPerMinute,
+            settings::getCallsPerMonth,
+            storagePath.resolve("quota.json"),
+            executor);
+    this.geolocationCache =
+        new GeolocationCache(storagePath.resolve("geolocation.json"), executor);
+    this.iconCache = new IconCache(
+            storagePath.resolve("icons"), client, executor, settings::isRefreshIcons);
+
+    this.scheduler = new RefreshScheduler(settings::getRefreshRate);
+    this.history = new WeatherHistory(storagePath.resolve("history"));
+    this.locationGrid = settings.getLocationGrid();
+
+    this.dataCache = CacheBuilder.newBuilder().recordStats().build();
+    this.forecastCache = CacheBuilder.newBuilder().build();
+
+    this.snapshotFile = storagePath.resolve("snapshot.json");
+    this.snapshotSavedAt = System.currentTimeMillis();
+    this.restored = restoreSnapshot();
+  }
+
+  static WeatherInfo toWeatherInfo(CurrentWeather weather, @Nullable ForecastData forecast) {
+    WeatherInfo info = new WeatherInfo();
+    info.setDt(weather.dt() * 1000);
+    info.setPressure(weather.pressure());
+    info.setTemperature(weather.temperature());
+    info.setHumidity(weather.humidity());
+    info.setFeelsLike(weather.feelsLike());
+    info.setMinTemperature(weather.minTemperature());
+    info.setMaxTemperature(weather.maxTemperature());
+    info.setVisibility(weather.visibility());
+    info.setSunrise(weather.sunrise() * 1000);
+    info.setSunset(weather.sunset() * 1000);
+    info.setWindDegree(weather.windDegree());
+    info.setWindSpeed(weather.windSpeed());
+    info.setClouds(weather.clouds());
+    info.setCity(weather.city());
+    info.setRainSpeed(weather.rain());
+    info.setIcon(weather.icon());
+    info.setCondition(weather.condition());
+
+    if (forecast != null) {
+      info.setForecast(ForecastAggregator.aggregate(forecast, info));
+    }
+
+    return info;
+  }
+
+  static double readValue(CurrentWeather weather, WeatherInfoType type) {
+    return getValueReader(type).applyAsDouble(weather);
+  }
+
+  static ToDoubleFunction<CurrentWeather> getValueReader(WeatherInfoType type) {
+    ToDoubleFunction<CurrentWeather> reader = VALUE_READERS.get(type);
+    if (reader == null) {
+      throw new IllegalArgumentException("Unsupported weather info type: " + type);
+    }
+    return reader;
+  }
+
+  private static Map<WeatherInfoType, ToDoubleFunction<CurrentWeather>> createValueReaders() {
+    Map<WeatherInfoType, ToDoubleFunction<CurrentWeather>> readers =
+        new EnumMap<>(WeatherInfoType.class);
+    for (WeatherInfoType type : WeatherInfoType.values()) {
+      readers.put(
+          type,
+          switch (type) {
+            case Temperature -> CurrentWeather::temperature;
+            case Pressure -> CurrentWeather::pressure;
+            case Humidity -> CurrentWeather::humidity;
+            case WindSpeed -> CurrentWeather::windSpeed;
+            case WindDegree -> CurrentWeather::windDegree;
+            case FeelsLike -> CurrentWeather::feelsLike;
+            case Visibility -> CurrentWeather::visibility;
+            case Clouds -> CurrentWeather::clouds;
+          });
+    }
+    return readers;
+  }
+
+  /** Cities without listeners are refreshed in background when read after their due time */
+  public CurrentWeather getCurrentWeather(String city) {
+    return getCurrentWeatherAt(getLocationKey(city));
+  }
+
+  /** WeatherInfo is shared between all callers until next fetch of weather or forecast */
+  public WeatherInfo getWeatherInfo(String city) {
+    String location = getLocationKey(city);
+    CurrentWeather weather = getCurrentWeatherAt(location);
+    ForecastData forecast = getForecast(location);
+    ParsedWeather parsed = parsedCache.get(location);
+    if (parsed == null || parsed.weather != weather || parsed.forecast != forecast) {
+      long start = System.nanoTime();
+      parsed = new ParsedWeather(weather, forecast, toWeatherInfo(weather, forecast));
+      metrics.aggregation.recordSince(start);
+      parsedCache.put(location, parsed);
+    }
+    return parsed.info;
+  }
+
+  /**
+   * @param timestamp - epoch millis
+   * @return stored weather measured at or before timestamp, null if history has no such data
+   */
+  public @Nullable WeatherInfo getHistoricalWeather(String city, long timestamp) {
+    CurrentWeather weather =
+        history.read(getLocationKey(city), city, Math.floorDiv(timestamp, 1000));
+    return weather == null ? null : toWeatherInfo(weather, null);
+  }
+
+  /** Stored weather measured within [from, to] epoch millis */
+  public List<WeatherInfo> getWeatherHistory(String city, long from, long to) {
+    List<WeatherInfo> result = new ArrayList<>();
+    for (CurrentWeather weather :
+        history.read(
+            getLocationKey(city), city, Math.floorDiv(from, 1000), Math.floorDiv(to, 1000))) {
+      result.add(toWeatherInfo(weather, null));
+    }
+    return result;
+  }
+
+  /**
+   * WeatherInfo without blocking caller. Completes immediately if city is cached, otherwise
+   * loads city in background sharing request with other readers of the same location.
+   */
+  public CompletableFuture<WeatherInfo> getWeatherInfoAsync(String city) {
+    String location = locationKeys.get(city);
+    long now = System.currentTimeMillis();
+    if (location != null
+        && !isExpired(weatherStoredAt, location, getMaxStaleness(), now)
+        && !isExpired(forecastStoredAt, location, getForecastMaxStaleness(), now)) {
+      return CompletableFuture.completedFuture(getWeatherInfo(city));
+    }
+    return CompletableFuture.supplyAsync(() -> getWeatherInfo(city), executor);
+  }
+
+  /**
+   * Reload listened cities whose due time passed. Cities missing in set are no longer listened.
+   * Cities of the same location are refreshed by single fetch.
+   *
+   * @param forecastCities - cities which require forecast(used by widgets)
+   * @return future per refreshed city
+   */
+  public Map<String, CompletableFuture<Void>> refreshDue(
+      Set<String> cities, Set<String> forecastCities) {
+    Map<String, List<String>> citiesByLocation = groupByLocation(cities);
+    List<String> due = scheduler.pollDue(citiesByLocation.keySet(), System.currentTimeMillis());
+    if (due.isEmpty()) {
+      return Map.of();
+    }
+    return toCityRefreshes(
+        refreshLocations(new LinkedHashSet<>(due), groupByLocation(forecastCities).keySet()),
+        citiesByLocation);
+  }
+
+  /**
+   * Reload cities in parallel. On failure cache keeps serving previous value.
+   *
+   * @param forecastCities - cities which require forecast(used by widgets)
+   * @return future per city which completes once city refresh finished
+   */
+  public Map<String, CompletableFuture<Void>> refresh(
+      Set<String> cities, Set<String> forecastCities) {
+    Map<String, List<String>> citiesByLocation = groupByLocation(cities);
+    return toCityRefreshes(
+        refreshLocations(
+            citiesByLocation.keySet(), groupByLocation(forecastCities).keySet()),
+        citiesByLocation);
+  }
+
+  public GeoPoint getGeolocation(String city) {
+    return geolocationCache.get(
+        city, name -> limited(metrics.geolocation, () -> geocoder.apply(name)));
+  }
+
+  private String getLocationKey(String city) {
+    String location = locationKeys.get(city);
+    if (location == null) {
+      location = GeolocationCache.toLocationKey(getGeolocation(city), locationGrid);
+      locationKeys.put(city, location);
+      locationNames.putIfAbsent(location, city);
+    }
+    return location;
+  }
+
+  // cities which can't be geocoded are skipped
+  private Map<String, List<String>> groupByLocation(Set<String> cities) {
+    Map<String, List<String>> result = new LinkedHashMap<>();
+    for (String city : cities) {
+      try {
+        result.computeIfAbsent(getLocationKey(city), key -> new ArrayList<>()).add(city);
+      } catch (Exception ex) {
+        logFailure("Unable to resolve location of city: {}", city, ex);
+      }
+    }
+    return result;
+  }
+
+  private static Map<String, CompletableFuture<Void>> toCityRefreshes(
+      Map<String, CompletableFuture<Void>> refreshes, Map<String, List<String>> citiesByLocation) {
+    Map<String, CompletableFuture<Void>> result = new HashMap<>();
+    refreshes.forEach(
+        (location, refresh) -> {
+          for (String city : citiesByLocation.get(location)) {
+            result.put(city, refresh);
+          }
+        });
+    return result;
+  }
+
+  private CurrentWeather getCurrentWeatherAt(String location) {
+    CurrentWeather weather = dataCache.getIfPresent(location);
+    if (weather != null
+        && isExpired(weatherStoredAt, location, getMaxStaleness(), System.currentTimeMillis())) {
+      dataCache.asMap().remove(location, weather);
+      weather = null;
+    }
+    if (weather == null) {
+      weather =
+          loadOnce(
+              weatherLoads,
+              location,
+              key -> {
+                CurrentWeather loaded = fetchCurrentWeather(key);
+                store(key, loaded);
+                return loaded;
+              });
+    } else if (scheduler.pollDueOnRead(location, System.currentTimeMillis())) {
+      CompletableFuture.runAsync(() -> refreshLocation(location, null, false), executor);
+    }
+    return weather;
+  }
+
+  private Map<String, CompletableFuture<Void>> refreshLocations(
+      Set<String> locations, Set<String> forecastLocations) {
+    Map<String, CompletableFuture<Void>> refreshes = new HashMap<>();
+    // locations with known OWM id are resolved by group requests, rest one by one
+    Map<Long, List<String>> locationsById = new LinkedHashMap<>();
+    // One Call has no group endpoint
+    boolean oneCall = settings.isOneCall();
+    for (String location : locations) {
+      Long cityId = oneCall ? null : cityIds.get(location);
+      if (cityId == null) {
+        refreshes.put(
+            location,
+            CompletableFuture.runAsync(
+                () -> refreshLocation(location, null, forecastLocations.contains(location)),
+                executor));
+      } else {
+        locationsById.computeIfAbsent(cityId, id -> new ArrayList<>()).add(location);
+      }
+    }
+    List<Long> ids = new ArrayList<>(locationsById.keySet());
+    for (int i = 0; i < ids.size(); i += GROUP_SIZE) {
+      List<Long> chunk = ids.subList(i, Math.min(i + GROUP_SIZE, ids.size()));
+      CompletableFuture<Map<Long, CurrentWeather>> group =
+          CompletableFuture.supplyAsync(() -> fetchCurrentWeatherGroup(chunk), executor)
+              .exceptionally(
+                  ex -> {
+                    logFailure(
+                        "Unable to fetch weather for city group: {}. Fallback to single requests",
+                        chunk,
+                        ex);
+                    return Map.of();
+                  });
+      for (Long cityId : chunk) {
+        for (String location : locationsById.get(cityId)) {
+          refreshes.put(
+              location,
+              group.thenAcceptAsync(
+                  current ->
+                      refreshLocation(
+                          location,
+                          current.get(cityId),
+                          forecastLocations.contains(location)),
+                  executor));
+        }
+      }
+    }
+    return refreshes;
+  }
+
+  /** @return data uri of OWM icon or null if icon is unknown */
+  public @Nullable String getIcon(@Nullable String icon) {
+    return iconCache.get(icon);
+  }
+
+  /** Download missing icons in background if refresh is enabled, not counted against OWM quota */
+  public void prefetchIcons() {
+    iconCache.prefetch();
+  }
+
+  public QuotaManager.QuotaUsage getQuotaUsage() {
+    return quotaManager.getUsage();
+  }
+
+  public WeatherMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** Hits/misses of cached weather, misses are loaded synchronously */
+  public String getCacheStats() {
+    CacheStats stats = dataCache.stats();
+    return "%d hits, %d misses, hit ratio %.2f, %d evictions, %d locations"
+        .formatted(
+            stats.hitCount(),
+            stats.missCount(),
+            stats.hitRate(),
+            stats.evictionCount(),
+            dataCache.size());
+  }
+
+  /** Register meters of cache and metrics. Meters are removed on close */
+  public void bindMetrics(MeterRegistry registry, Tags tags) {
+    GuavaCacheMetrics.monitor(registry, dataCache, "owm.weather", tags);
+    metrics.bindTo(registry, tags);
+    meterRegistry = registry;
+    meterTags = tags;
+  }
+
+  /**
+   * @return true if cache was filled from warm start snapshot. Such cities are served immediately
+   *     and are due for background refresh
+   */
+  public boolean isRestored() {
+    return restored;
+  }
+
+  // drop expired data and parsed data of locations which are no longer cached
+  public void cleanUp() {
+    long now = System.currentTimeMillis();
+    removeExpired(dataCache, weatherStoredAt, getMaxStaleness(), now);
+    removeExpired(forecastCache, forecastStoredAt, getForecastMaxStaleness(), now);
+    Set<String> cachedLocations = dataCache.asMap().keySet();
+    parsedCache.keySet().retainAll(cachedLocations);
+    scheduler.cleanUp(cachedLocations);
+
+    double grid = settings.getLocationGrid();
+    if (grid != locationGrid) {
+      // cities are re-resolved to new cells, old cells expire
+      locationGrid = grid;
+      locationKeys.clear();
+    }
+
+    if (now - historyCompactedAt > HISTORY_COMPACT_INTERVAL) {
+      historyCompactedAt = now;
+      executor.execute(
+          () ->
+              history.compact(
+                  now / 1000,
+                  TimeUnit.DAYS.toSeconds(settings.getHistoryRetention()),
+                  TimeUnit.DAYS.toSeconds(settings.getHistoryFullResolution())));
+    }
+    if (now - snapshotSavedAt > SNAPSHOT_INTERVAL) {
+      snapshotSavedAt = now;
+      executor.execute(this::saveSnapshot);
+    }
+  }
+
+  public void close() {
+    if (meterRegistry != null) {
+      for (Meter meter : meterRegistry.getMeters()) {
+        if (meter.getId().getName().startsWith("owm.")
+            && meter.getId().getTags().containsAll(meterTags.stream().toList())) {
+          meterRegistry.remove(meter);
+        }
+      }
+    }
+    saveSnapshot();
+    quotaManager.save();
+    executor.shutdownNow();
+    history.close();
+  }
+
+  private void saveSnapshot() {
+    snapshotLock.lock();
+    try {
+      Map<String, WeatherSnapshot.Forecast> forecasts = new HashMap<>();
+      forecastCache
+          .asMap()
+          .forEach((city, data) -> forecasts.put(city, WeatherSnapshot.Forecast.of(data)));
+      new WeatherSnapshot(
+              System.currentTimeMillis(),
+              settings.getUnit(),
+              settings.getLang(),
+              new HashMap<>(dataCache.asMap()),
+              forecasts,
+              new HashMap<>(cityIds))
+          .save(snapshotFile);
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Put snapshot data into caches without touching scheduler, so every restored city is due on
+   * first tick. Weather older than max staleness is skipped.
+   *
+   * @return true if any city was restored
+   */
+  private boolean restoreSnapshot() {
+    WeatherSnapshot snapshot = WeatherSnapshot.load(snapshotFile);
+    if (snapshot == null
+        || !Objects.equals(snapshot.unit(), settings.getUnit())
+        || !Objects.equals(snapshot.lang(), settings.getLang())) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    long staleBefore = now - getMaxStaleness();
+    for (Map.Entry<String, CurrentWeather> entry : snapshot.weather().entrySet()) {
+      // weather is at least as old as it's measurement
+      long storedAt = entry.getValue().dt() * 1000;
+      if (GeolocationCache.parseLocationKey(entry.getKey()) != null && storedAt >= staleBefore) {
+        dataCache.put(entry.getKey(), entry.getValue());
+        weatherStoredAt.put(entry.getKey(), storedAt);
+        locationNames.putIfAbsent(entry.getKey(), entry.getValue().city());
+      }
+    }
+    // forecast age is unknown, but it's at least time since save. Old one is reloaded on read
+    for (Map.Entry<String, WeatherSnapshot.Forecast> entry : snapshot.forecast().entrySet()) {
+      ForecastData data = entry.getValue().toForecastData();
+      // drop forecast which has no future entries
+      if (GeolocationCache.parseLocationKey(entry.getKey()) != null
+          && data.size > 0
+          && data.dt[data.size - 1] * 1000 > now) {
+        forecastCache.put(entry.getKey(), data);
+        forecastStoredAt.put(entry.getKey(), snapshot.savedAt());
+      }
+    }
+    cityIds.putAll(snapshot.cityIds());
+    log.info(
+        "Restored weather snapshot of {} locations saved at {}",
+        dataCache.size(),
+        Instant.ofEpochMilli(snapshot.savedAt()));
+    return dataCache.size() > 0;
+  }
+
+  /**
+   * @param current - current weather already fetched by group request or null
+   */
+  private void refreshLocation(
+      String location, @Nullable CurrentWeather current, boolean withForecast) {
+    try {
+      // forecast cache reloads itself in background once it's refresh window passed. One Call
+      // response carries forecast with current weather
+      CompletableFuture<?> forecast =
+          withForecast && !settings.isOneCall()
+              ? CompletableFuture.runAsync(() -> getForecast(location), executor)
+              : CompletableFuture.completedFuture(null);
+      store(location, current == null ? fetchCurrentWeather(location) : current);
+      forecast.join();
+    } catch (Exception ex) {
+      scheduler.onRefreshed(location, null, System.currentTimeMillis());
+      logFailure("Unable to refresh weather for location: {}. Serve cached data", location, ex);
+    }
+  }
+
+  // rejected requests are expected while quota/circuit holds them back, no need for stack trace
+  private static void logFailure(String message, Object subject, Throwable ex) {
+    Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+    if (cause instanceof RequestRejectedException) {
+      log.debug(message + ". {}", subject, cause.getMessage());
+    } else {
+      log.warn(message, subject, cause);
+    }
+  }
+
+  private void store(String location, CurrentWeather weather) {
+    // keep previous instance if nothing changed, listeners use snapshot identity as fingerprint.
+    // Map view doesn't count as cache hit/miss
+    CurrentWeather cached = dataCache.asMap().get(location);
+    weatherStoredAt.put(location, System.currentTimeMillis());
+    if (weather.equals(cached)) {
+      dataCache.put(location, cached);
+    } else {
+      dataCache.put(location, weather);
+      history.append(location, weather);
+    }
+    scheduler.onRefreshed(location, weather, System.currentTimeMillis());
+  }
+
+  // Loaded outside of Guava, which loads absent key inside synchronized block and pins virtual
+  // thread carrier while request waits for http/limiter permit. Forecast older than it's refresh
+  // rate is served while it's reloaded in background
+  private ForecastData getForecast(String location) {
+    ForecastData forecast = forecastCache.getIfPresent(location);
+    long now = System.currentTimeMillis();
+    if (forecast != null
+        && isExpired(forecastStoredAt, location, getForecastMaxStaleness(), now)) {
+      forecastCache.asMap().remove(location, forecast);
+      forecast = null;
+    }
+    if (forecast == null) {
+      return loadOnce(forecastLoads, location, this::loadForecast);
+    }
+    if (isExpired(forecastStoredAt, location, getForecastRefreshRate(), now)) {
+      CompletableFuture<ForecastData> reload = new CompletableFuture<>();
+      if (forecastLoads.putIfAbsent(location, reload) == null) {
+        executor.execute(
+            () -> {
+              try {
+                reload.complete(loadForecast(location));
+              } catch (Exception ex) {
+                reload.completeExceptionally(ex);
+                logFailure("Unable to reload forecast for location: {}", location, ex);
+              } finally {
+                forecastLoads.remove(location, reload);
+              }
+            });
+      }
+    }
+    return forecast;
+  }
+
+  private ForecastData loadForecast(String location) {
+    ForecastData loaded = fetchForecast(location);
+    putForecast(location, loaded);
+    return loaded;
+  }
+
+  private void putForecast(String location, ForecastData forecast) {
+    forecastStoredAt.put(location, System.currentTimeMillis());
+    forecastCache.put(location, forecast);
+  }
+
+  // @return true if location has no data stored or it's older than maxAge
+  private static boolean isExpired(
+      Map<String, Long> storedAt, String location, long maxAge, long now) {
+    Long time = storedAt.get(location);
+    return time == null || now - time > maxAge;
+  }
+
+  private static void removeExpired(
+      Cache<String, ?> cache, Map<String, Long> storedAt, long maxAge, long now) {
+    storedAt.forEach(
+        (location, time) -> {
+          if (now - time > maxAge) {
+            cache.invalidate(location);
+            storedAt.remove(location, time);
+          }
+        });
+  }
+
+  // never below refresh rate, refreshed data doesn't expire before next refresh
+  private long getMaxStaleness() {
+    return TimeUnit.MINUTES.toMillis(
+        Math.max(settings.getRefreshRate(), settings.getMaxStaleness()));
+  }
+
+  private long getForecastRefreshRate() {
+    return TimeUnit.MINUTES.toMillis(
+        Math.max(settings.getRefreshRate(), MIN_FORECAST_REFRESH_MINUTES));
+  }
+
+  private long getForecastMaxStaleness() {
+    return Math.max(getForecastRefreshRate(), getMaxStaleness());
+  }
+
+  @SneakyThrows
+  private <T> T loadOnce(
+      Map<String, CompletableFuture<T>> loads, String location, Function<String, T> loader) {
+    CompletableFuture<T> load =
+        loads.computeIfAbsent(
+            location, key -> CompletableFuture.supplyAsync(() -> loader.apply(key), executor));
+    try {
+      return load.join();
+    } catch (CompletionException ex) {
+      throw ex.getCause();
+    } finally {
+      loads.remove(location, load);
+    }
+  }
+
+  private ForecastData fetchForecast(String location) {
+    if (settings.isOneCall()) {
+      OneCall oneCall = fetchOneCall(location);
+      store(location, oneCall.current());
+      return oneCall.forecast();
+    }
+    String url = buildWeatherRequest(location).replace(FORECAST_URL);
+    return request(metrics.forecast, () -> client.get(url, OpenWeatherParser::parseForecast));
+  }
+
+  private CurrentWeather fetchCurrentWeather(String location) {
+    if (settings.isOneCall()) {
+      OneCall oneCall = fetchOneCall(location);
+      putForecast(location, oneCall.forecast());
+      return oneCall.current();
+    }
+    String url = buildWeatherRequest(location).replace(WEATHER_URL);
+    CurrentWeather weather =
+        request(metrics.weather, () -> client.get(url, OpenWeatherParser::parseCurrentWeather));
+    if (weather.id() > 0) {
+      cityIds.put(location, weather.id());
+    }
+    return weather;
+  }
+
+  // current weather, hourly and daily forecast in single request
+  private OneCall fetchOneCall(String location) {
+    String name = locationNames.getOrDefault(location, location);
+    String url = buildWeatherRequest(location).replace(ONE_CALL_URL);
+    return request(
+        metrics.oneCall,
+        () -> client.get(url, stream -> OpenWeatherParser.parseOneCall(stream, name)));
+  }
+
+  private Map<Long, CurrentWeather> fetchCurrentWeatherGroup(List<Long> ids) {
+    Map<String, String> valuesMap = buildRequestParameters();
+    valuesMap.put("ids", ids.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    String url = new StringSubstitutor(valuesMap).replace(GROUP_URL);
+    Map<Long, CurrentWeather> result = new HashMap<>();
+    for (CurrentWeather weather :
+        request(
+            metrics.group, () -> client.get(url, OpenWeatherParser::parseCurrentWeatherGroup))) {
+      result.put(weather.id(), weather);
+    }
+    return result;
+  }
+
+  // OWM call, counted against quota
+  private <T> T request(Latency latency, Supplier<T> request) {
+    return quotaManager.execute(() -> limited(latency, request));
+  }
+
+  @SneakyThrows
+  // latency covers http call with streaming parse, not waiting for permit
+  private <T> T limited(Latency latency, Supplier<T> request) {
+    requestLimiter.acquire();
+    long start = System.nanoTime();
+    try {
+      return request.get();
+    } finally {
+      latency.recordSince(start);
+      requestLimiter.release();
+    }
+  }
+
+  // request of location's cell center, so all cities of cell get the same data
+  private StringSubstitutor buildWeatherRequest(String location) {
+    GeoPoint point = GeolocationCache.parseLocationKey(location);
+    if (point == null) {
+      throw new IllegalArgumentException("Invalid weather location: " + location);
+    }
+    Map<String, String> valuesMap = buildRequestParameters();
+    valuesMap.put("lat", String.valueOf(point.lat()));
+    valuesMap.put("lon", String.valueOf(point.lon()));
+    return new StringSubstitutor(valuesMap);
+  }
+
+  private Map<String, String> buildRequestParameters() {
+    Map<String, String> valuesMap = new HashMap<>();
+    valuesMap.put("url", settings.getApiUrl());
+    valuesMap.put("unit", settings.getUnit());
+    valuesMap.put("key", settings.getApiKey());
+    valuesMap.put("lang", settings.getLang());
+    return valuesMap;
+  }
+
+  /** Read on every request, so changes of entity are picked up without restart */
+  interface Settings {
+
+    // base url without trailing slash, i.e. https://api.openweathermap.org
+    String getApiUrl();
+
+    String getApiKey();
+
+    String getUnit();
+
+    String getLang();
+
+    // grid cell size in degrees to which city coordinates are snapped, 0 - exact coordinates
+    double getLocationGrid();
+
+    // use One Call 3.0 instead of 2.5 weather/forecast/group endpoints
+    boolean isOneCall();
+
+    int getRefreshRate();
+
+    int getMaxStaleness();
+
+    int getCallsPerMinute();
+
+    int getCallsPerMonth();
+
+    // days to keep weather history
+    int getHistoryRetention();
+
+    // days to keep every fetched snapshot in history, older are reduced to one per hour
+    int getHistoryFullResolution();
+
+    // download icons from OWM CDN over ones bundled in jar
+    boolean isRefreshIcons();
+  }
+
+  private record ParsedWeather(CurrentWeather weather, ForecastData forecast, WeatherInfo info) {}
+}
@@ -0,0 +1,89 @@
+package org.homio.addon.openweathermap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.Nullable;
+
+/** Http client which hands response body stream directly to streaming parser. */
+class OpenWeatherClient {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  private final HttpClient httpClient =
+      HttpClient.newBuilder()
+          .connectTimeout(TIMEOUT)
+          .followRedirects(HttpClient.Redirect.NORMAL)
+          .build();
+
+  @SneakyThrows
+  <T> T get(String url, ResponseParser<T> parser) {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(TIMEOUT).GET().build();
+    HttpResponse<InputStream> response = httpClient.send(request, BodyHandlers.ofInputStream());
+    try (InputStream body = response.body()) {
+      if (response.statusCode() != 200) {
+        throw new HttpStatusException(
+            response.statusCode(),
+            response
+                .headers()
+                .firstValue("Retry-After")
+                .map(HttpStatusException::parseRetryAfter)
+                .orElse(null),
+            new String(body.readNBytes(1024), StandardCharsets.UTF_8));
+      }
+      return parser.parse(body);
+    }
+  }
+
+  interface ResponseParser<T> {
+    T parse(InputStream stream) throws IOException;
+  }
+
+  @Getter
+  static class HttpStatusException extends IllegalStateException {
+
+    private final int statusCode;
+    private final @Nullable Duration retryAfter;
+
+    HttpStatusException(int statusCode, @Nullable Duration retryAfter, String body) {
+      super("OpenWeatherMap responded with status %s: %s".formatted(statusCode, body));
+      this.statusCode = statusCode;
+      this.retryAfter = retryAfter;
+    }
+
+    // Retry-After is either delay in seconds or http date
+    static @Nullable Duration parseRetryAfter(String value) {
+      try {
+        return Duration.ofSeconds(Long.parseLong(value.trim()));
+      } catch (NumberFormatException ignore) {
+      }
+      try {
+        Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        return Duration.between(Instant.now(), date);
+      } catch (DateTimeParseException ignore) {
+        return null;
+      }
+    }
+
+    boolean isRateLimited() {
+      return statusCode == 429;
+    }
+
+    // request specific errors, i.e. unknown city. 401 is invalid api key and 429 quota
+    boolean isClientError() {
+      return statusCode >= 400 && statusCode < 500 && statusCode != 401 && statusCode != 429;
+    }
+  }
+}
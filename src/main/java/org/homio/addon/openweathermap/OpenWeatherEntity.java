@@ -32,8 +32,10 @@ import org.json.JSONObject;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import static org.apache.commons.lang3.StringUtils.defaultIfEmpty;
+import static org.apache.commons.lang3.StringUtils.removeEnd;
 
 @SuppressWarnings({"JpaAttributeTypeInspection", "JpaAttributeMemberSignatureInspection", "unused"})
 @Entity
@@ -42,6 +44,7 @@ public class OpenWeatherEntity extends WeatherEntity<OpenWeatherService>
     implements HasDynamicContextMenuActions, HasCustomWidget {
 
   public static final String WEATHER_PROVIDER = "weatherProvider";
+  public static final String DEFAULT_API_URL = "https://api.openweathermap.org";
 
   private static void configureDialog(UIDialogLayoutBuilder dialogBuilder) {
     dialogBuilder.addFlex(
@@ -87,6 +90,16 @@ public class OpenWeatherEntity extends WeatherEntity<OpenWeatherService>
     setJsonData("unit", value);
   }
 
+  @UIField(order = 3)
+  @UIFieldGroup("MISC")
+  public String getApiUrl() {
+    return removeEnd(getJsonData("apiUrl", DEFAULT_API_URL), "/");
+  }
+
+  public void setApiUrl(String value) {
+    setJsonData("apiUrl", value);
+  }
+
   @UIField(order = 4)
   @UIFieldGroup("MISC")
   @UIFieldSlider(min = 1, max = 60, header = "min")
@@ -98,6 +111,164 @@ public class OpenWeatherEntity extends WeatherEntity<OpenWeatherService>
     setJsonData("rate", value);
   }
 
+  @UIField(order = 5)
+  @UIFieldGroup("MISC")
+  @UIFieldSlider(min = 10, max = 1440, header = "min")
+  public int getMaxStaleness() {
+    return getJsonData("maxStale", 180);
+  }
+
+  public void setMaxStaleness(int value) {
+    setJsonData("maxStale", value);
+  }
+
+  /** Ignored variable changes per type, i.e. 'Temperature:0.1, FeelsLike:0.1' */
+  @UIField(order = 6)
+  @UIFieldGroup("MISC")
+  public String getDeadbands() {
+    return getJsonData("deadbands", "");
+  }
+
+  public void setDeadbands(String value) {
+    setJsonData("deadbands", value);
+  }
+
+  /** One Call 3.0 returns current weather and forecast in single request, requires subscription */
+  @UIField(order = 7)
+  @UIFieldGroup("MISC")
+  public WeatherApi getApi() {
+    return getJsonDataEnum("api", WeatherApi.weather2_5);
+  }
+
+  public void setApi(String value) {
+    setJsonData("api", value);
+  }
+
+  /** Cities within the same grid cell share weather, 0 - per exact coordinates */
+  @UIField(order = 8)
+  @UIFieldGroup("MISC")
+  public double getLocationGrid() {
+    return getJsonData("grid", 0.05D);
+  }
+
+  public void setLocationGrid(double value) {
+    setJsonData("grid", value);
+  }
+
+  /** Icons are bundled, refresh downloads originals from openweathermap.org once */
+  @UIField(order = 9)
+  @UIFieldGroup("MISC")
+  public boolean isRefreshIcons() {
+    return getJsonData("refreshIcons", false);
+  }
+
+  public void setRefreshIcons(boolean value) {
+    setJsonData("refreshIcons", value);
+  }
+
+  @UIField(order = 1)
+  @UIFieldGroup(value = "HISTORY", order = 60)
+  @UIFieldSlider(min = 1, max = 365, header = "days")
+  public int getHistoryRetention() {
+    return getJsonData("hr", 30);
+  }
+
+  public void setHistoryRetention(int value) {
+    setJsonData("hr", value);
+  }
+
+  @UIField(order = 2)
+  @UIFieldGroup("HISTORY")
+  @UIFieldSlider(min = 1, max = 365, header = "days")
+  public int getHistoryFullResolution() {
+    return getJsonData("hfr", 2);
+  }
+
+  public void setHistoryFullResolution(int value) {
+    setJsonData("hfr", value);
+  }
+
+  @UIField(order = 1)
+  @UIFieldGroup(value = "QUOTA", order = 50)
+  @UIFieldSlider(min = 1, max = 3000)
+  public int getCallsPerMinute() {
+    return getJsonData("cpm", 60);
+  }
+
+  public void setCallsPerMinute(int value) {
+    setJsonData("cpm", value);
+  }
+
+  @UIField(order = 2)
+  @UIFieldGroup("QUOTA")
+  public int getCallsPerMonth() {
+    return getJsonData("cpmonth", 1_000_000);
+  }
+
+  public void setCallsPerMonth(int value) {
+    setJsonData("cpmonth", value);
+  }
+
+  @UIField(order = 3, hideInEdit = true)
+  @UIFieldGroup("QUOTA")
+  public String getQuotaUsage() {
+    return optService().map(service -> service.getQuotaUsage().toString()).orElse(null);
+  }
+
+  @UIField(order = 1, hideInEdit = true)
+  @UIFieldGroup(value = "METRICS", order = 70)
+  public String getCacheStats() {
+    return optService().map(OpenWeatherService::getCacheStats).orElse(null);
+  }
+
+  @UIField(order = 2, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getGeolocationLatency() {
+    return getMetric(metrics -> metrics.geolocation);
+  }
+
+  @UIField(order = 3, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getWeatherLatency() {
+    return getMetric(metrics -> metrics.weather);
+  }
+
+  @UIField(order = 4, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getGroupLatency() {
+    return getMetric(metrics -> metrics.group);
+  }
+
+  @UIField(order = 5, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getForecastLatency() {
+    return getMetric(metrics -> metrics.forecast);
+  }
+
+  @UIField(order = 6, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getOneCallLatency() {
+    return getMetric(metrics -> metrics.oneCall);
+  }
+
+  @UIField(order = 7, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getAggregationTime() {
+    return getMetric(metrics -> metrics.aggregation);
+  }
+
+  @UIField(order = 8, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getTickDuration() {
+    return getMetric(metrics -> metrics.tick);
+  }
+
+  @UIField(order = 9, hideInEdit = true)
+  @UIFieldGroup("METRICS")
+  public String getFanOut() {
+    return getMetric(WeatherMetrics::getFanOut);
+  }
+
   @Override
   public String getDefaultName() {
     return "OpenWeatherMap";
@@ -141,7 +312,7 @@ public class OpenWeatherEntity extends WeatherEntity<OpenWeatherService>
               String city = params.getString("city");
               String groupId = params.getString("group");
               // ensure city exists
-              context.network().getCityGeolocation(city);
+              getService().getGeolocation(city);
               createVariables(params, context, groupId, city);
               return ActionResponseModel.success();
             })
@@ -161,8 +332,8 @@ public class OpenWeatherEntity extends WeatherEntity<OpenWeatherService>
   }
 
   private @NotNull ActionResponseModel createWeatherWidget(Context context, JSONObject params) {
+    // running service picks widget up once its data store is attached, no restart needed
     createWeatherWidget(context, params.getString("tab"), params.getString("city"));
-    getOrCreateService(context()).ifPresent(ServiceInstance::restartService);
     return ActionResponseModel.success();
   }
 
@@ -239,11 +410,22 @@ public class OpenWeatherEntity extends WeatherEntity<OpenWeatherService>
                     .parameterEntity(getEntityID()));
   }
 
+  private @Nullable String getMetric(Function<WeatherMetrics, Object> metric) {
+    return optService()
+        .map(service -> String.valueOf(metric.apply(service.getMetrics())))
+        .orElse(null);
+  }
+
   public enum WeatherUnit {
     metric,
     imperial
   }
 
+  public enum WeatherApi {
+    weather2_5,
+    oneCall3_0
+  }
+
   public static class SelectTab implements DynamicOptionLoader {
 
     @Override
@@ -0,0 +1,434 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming decoder of OWM responses. Reads only fields used by addon without building json tree.
+ */
+final class OpenWeatherParser {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final int DEFAULT_FORECAST_SIZE = 40;
+  private static final int ONE_CALL_HOURLY_SIZE = 48;
+  private static final int ONE_CALL_DAILY_SIZE = 8;
+  private static final Map<String, String> STRINGS = new ConcurrentHashMap<>();
+
+  private OpenWeatherParser() {}
+
+  /** Parse /data/2.5/weather response */
+  static CurrentWeather parseCurrentWeather(InputStream stream) throws IOException {
+    try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+      parser.nextToken();
+      return readCurrentWeather(parser);
+    }
+  }
+
+  /** Parse /data/2.5/group response */
+  static List<CurrentWeather> parseCurrentWeatherGroup(InputStream stream) throws IOException {
+    List<CurrentWeather> result = new ArrayList<>();
+    try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+      parser.nextToken();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        if ("list".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            result.add(readCurrentWeather(parser));
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Parse /data/2.5/forecast response */
+  static ForecastData parseForecast(InputStream stream) throws IOException {
+    ForecastData data = null;
+    try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+      parser.nextToken();
+      int count = DEFAULT_FORECAST_SIZE;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        if ("cnt".equals(field)) {
+          count = Math.max(1, parser.getIntValue());
+        } else if ("list".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+          data = new ForecastData(count);
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            readForecastEntry(parser, data, data.add());
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return data == null ? new ForecastData(0) : data;
+  }
+
+  /**
+   * Parse /data/3.0/onecall response. Response has no city name/id, current weather gets passed
+   * city and id 0. Current min/max temperature are taken from today's daily summary.
+   */
+  static OneCall parseOneCall(InputStream stream, String city) throws IOException {
+    CurrentWeather current = null;
+    ForecastData hourly = new ForecastData(ONE_CALL_HOURLY_SIZE);
+    ForecastData daily = new ForecastData(ONE_CALL_DAILY_SIZE);
+    try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+      parser.nextToken();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken token = parser.nextToken();
+        if ("current".equals(field) && token == JsonToken.START_OBJECT) {
+          current = readOneCallCurrent(parser, city);
+        } else if ("hourly".equals(field) && token == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            readOneCallEntry(parser, hourly, hourly.add());
+          }
+        } else if ("daily".equals(field) && token == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            readOneCallEntry(parser, daily, daily.add());
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    if (current == null) {
+      throw new IllegalStateException("OpenWeatherMap response has no 'current' weather");
+    }
+    if (daily.size > 0) {
+      current = withTemperatureRange(current, daily.tempMin[0], daily.tempMax[0]);
+    }
+    hourly.daily = daily;
+    return new OneCall(current, hourly);
+  }
+
+  // parser must point to START_OBJECT of current weather item
+  private static CurrentWeather readCurrentWeather(JsonParser parser) throws IOException {
+    long id = 0, dt = 0, sunrise = 0, sunset = 0;
+    double temp = 0, feelsLike = 0, tempMin = 0, tempMax = 0, pressure = 0, humidity = 0;
+    double visibility = 0, windSpeed = 0, windDegree = 0, clouds = 0, rain = 0;
+    String city = "";
+    WeatherCondition weather = WeatherCondition.NONE;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken token = parser.nextToken();
+      switch (field) {
+        case "id" -> id = parser.getValueAsLong();
+        case "dt" -> dt = parser.getValueAsLong();
+        case "name" -> city = parser.getValueAsString("");
+        case "visibility" -> visibility = parser.getValueAsDouble();
+        case "main" -> {
+          while (token == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+              case "temp" -> temp = parser.getValueAsDouble();
+              case "feels_like" -> feelsLike = parser.getValueAsDouble();
+              case "temp_min" -> tempMin = parser.getValueAsDouble();
+              case "temp_max" -> tempMax = parser.getValueAsDouble();
+              case "pressure" -> pressure = parser.getValueAsDouble();
+              case "humidity" -> humidity = parser.getValueAsDouble();
+              default -> parser.skipChildren();
+            }
+          }
+        }
+        case "wind" -> {
+          while (token == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+              case "speed" -> windSpeed = parser.getValueAsDouble();
+              case "deg" -> windDegree = parser.getValueAsDouble();
+              default -> parser.skipChildren();
+            }
+          }
+        }
+        case "clouds" -> clouds = readObjectValue(parser, "all");
+        case "rain" -> rain = readObjectValue(parser, "1h");
+        case "sys" -> {
+          while (token == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+              case "sunrise" -> sunrise = parser.getValueAsLong();
+              case "sunset" -> sunset = parser.getValueAsLong();
+              default -> parser.skipChildren();
+            }
+          }
+        }
+        case "weather" -> weather = readWeatherCondition(parser);
+        default -> parser.skipChildren();
+      }
+    }
+    if (weather.icon() == null) {
+      throw new IllegalStateException("OpenWeatherMap response has no 'weather' info");
+    }
+    return new CurrentWeather(
+        id,
+        dt,
+        city,
+        temp,
+        feelsLike,
+        tempMin,
+        tempMax,
+        pressure,
+        humidity,
+        visibility,
+        windSpeed,
+        windDegree,
+        clouds,
+        rain,
+        sunrise,
+        sunset,
+        weather.icon(),
+        weather.condition() == null ? "" : weather.condition());
+  }
+
+  // parser must point to START_OBJECT of forecast 'list' item
+  private static void readForecastEntry(JsonParser parser, ForecastData data, int i)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken token = parser.nextToken();
+      switch (field) {
+        case "dt" -> data.dt[i] = parser.getValueAsLong();
+        case "main" -> {
+          while (token == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+              case "temp" -> data.temp[i] = parser.getValueAsDouble();
+              case "feels_like" -> data.feelsLike[i] = parser.getValueAsDouble();
+              case "temp_min" -> data.tempMin[i] = parser.getValueAsDouble();
+              case "temp_max" -> data.tempMax[i] = parser.getValueAsDouble();
+              case "pressure" -> data.pressure[i] = parser.getValueAsDouble();
+              case "humidity" -> data.humidity[i] = parser.getValueAsDouble();
+              default -> parser.skipChildren();
+            }
+          }
+        }
+        case "wind" -> {
+          while (token == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+              case "speed" -> data.windSpeed[i] = parser.getValueAsDouble();
+              case "deg" -> data.windDegree[i] = parser.getValueAsDouble();
+              default -> parser.skipChildren();
+            }
+          }
+        }
+        case "weather" -> {
+          WeatherCondition weather = readWeatherCondition(parser);
+          data.icon[i] = weather.icon();
+          data.condition[i] = weather.condition();
+          data.description[i] = weather.description();
+        }
+        default -> parser.skipChildren();
+      }
+    }
+  }
+
+  // parser must point to START_OBJECT of One Call 'current'
+  private static CurrentWeather readOneCallCurrent(JsonParser parser, String city)
+      throws IOException {
+    long dt = 0, sunrise = 0, sunset = 0;
+    double temp = 0, feelsLike = 0, pressure = 0, humidity = 0;
+    double visibility = 0, windSpeed = 0, windDegree = 0, clouds = 0, rain = 0;
+    WeatherCondition weather = WeatherCondition.NONE;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "dt" -> dt = parser.getValueAsLong();
+        case "sunrise" -> sunrise = parser.getValueAsLong();
+        case "sunset" -> sunset = parser.getValueAsLong();
+        case "temp" -> temp = parser.getValueAsDouble();
+        case "feels_like" -> feelsLike = parser.getValueAsDouble();
+        case "pressure" -> pressure = parser.getValueAsDouble();
+        case "humidity" -> humidity = parser.getValueAsDouble();
+        case "visibility" -> visibility = parser.getValueAsDouble();
+        case "wind_speed" -> windSpeed = parser.getValueAsDouble();
+        case "wind_deg" -> windDegree = parser.getValueAsDouble();
+        case "clouds" -> clouds = parser.getValueAsDouble();
+        case "rain" -> rain = readObjectValue(parser, "1h");
+        case "weather" -> weather = readWeatherCondition(parser);
+        default -> parser.skipChildren();
+      }
+    }
+    if (weather.icon() == null) {
+      throw new IllegalStateException("OpenWeatherMap response has no 'weather' info");
+    }
+    return new CurrentWeather(
+        0,
+        dt,
+        city,
+        temp,
+        feelsLike,
+        temp,
+        temp,
+        pressure,
+        humidity,
+        visibility,
+        windSpeed,
+        windDegree,
+        clouds,
+        rain,
+        sunrise,
+        sunset,
+        weather.icon(),
+        weather.condition() == null ? "" : weather.condition());
+  }
+
+  /**
+   * Parser must point to START_OBJECT of One Call 'hourly' or 'daily' item. Hourly items have
+   * plain 'temp'/'feels_like', daily items have objects with 'day', 'min' and 'max'.
+   */
+  private static void readOneCallEntry(JsonParser parser, ForecastData data, int i)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken token = parser.nextToken();
+      switch (field) {
+        case "dt" -> data.dt[i] = parser.getValueAsLong();
+        case "temp" -> {
+          if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+              String name = parser.currentName();
+              parser.nextToken();
+              switch (name) {
+                case "day" -> data.temp[i] = parser.getValueAsDouble();
+                case "min" -> data.tempMin[i] = parser.getValueAsDouble();
+                case "max" -> data.tempMax[i] = parser.getValueAsDouble();
+                default -> parser.skipChildren();
+              }
+            }
+          } else {
+            data.temp[i] = parser.getValueAsDouble();
+            data.tempMin[i] = data.temp[i];
+            data.tempMax[i] = data.temp[i];
+          }
+        }
+        case "feels_like" ->
+            data.feelsLike[i] =
+                token == JsonToken.START_OBJECT
+                    ? readObjectValue(parser, "day")
+                    : parser.getValueAsDouble();
+        case "pressure" -> data.pressure[i] = parser.getValueAsDouble();
+        case "humidity" -> data.humidity[i] = parser.getValueAsDouble();
+        case "wind_speed" -> data.windSpeed[i] = parser.getValueAsDouble();
+        case "wind_deg" -> data.windDegree[i] = parser.getValueAsDouble();
+        case "weather" -> {
+          WeatherCondition weather = readWeatherCondition(parser);
+          data.icon[i] = weather.icon();
+          data.condition[i] = weather.condition();
+          data.description[i] = weather.description();
+        }
+        default -> parser.skipChildren();
+      }
+    }
+  }
+
+  // parser must point to value of 'weather' field. Only first item of array is used
+  private static WeatherCondition readWeatherCondition(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return WeatherCondition.NONE;
+    }
+    WeatherCondition result = WeatherCondition.NONE;
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (result != WeatherCondition.NONE || parser.currentToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+      String icon = null, condition = null, description = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        parser.nextToken();
+        switch (name) {
+          case "icon" -> icon = intern(parser.getValueAsString());
+          case "main" -> condition = intern(parser.getValueAsString(""));
+          case "description" -> description = intern(parser.getValueAsString(""));
+          default -> parser.skipChildren();
+        }
+      }
+      result = new WeatherCondition(icon, condition, description);
+    }
+    return result;
+  }
+
+  private static CurrentWeather withTemperatureRange(
+      CurrentWeather weather, double min, double max) {
+    return new CurrentWeather(
+        weather.id(),
+        weather.dt(),
+        weather.city(),
+        weather.temperature(),
+        weather.feelsLike(),
+        Math.min(min, weather.temperature()),
+        Math.max(max, weather.temperature()),
+        weather.pressure(),
+        weather.humidity(),
+        weather.visibility(),
+        weather.windSpeed(),
+        weather.windDegree(),
+        weather.clouds(),
+        weather.rain(),
+        weather.sunrise(),
+        weather.sunset(),
+        weather.icon(),
+        weather.condition());
+  }
+
+  // read single numeric field of nested object, i.e. "clouds": {"all": 75}
+  private static double readObjectValue(JsonParser parser, String valueField) throws IOException {
+    double value = 0;
+    if (parser.currentToken() == JsonToken.START_OBJECT) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        parser.nextToken();
+        if (valueField.equals(name)) {
+          value = parser.getValueAsDouble();
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return value;
+  }
+
+  // icons and conditions have small vocabulary, share instances between cities/snapshots
+  static String intern(String value) {
+    if (value == null) {
+      return null;
+    }
+    String interned = STRINGS.putIfAbsent(value, value);
+    return interned == null ? value : interned;
+  }
+
+  // first item of 'weather' array, fields are null if missing
+  private record WeatherCondition(String icon, String condition, String description) {
+
+    private static final WeatherCondition NONE = new WeatherCondition(null, null, null);
+  }
+
+  /**
+   * Decoded One Call 3.0 response
+   *
+   * @param forecast - 'hourly' entries with 'daily' summaries attached
+   */
+  record OneCall(CurrentWeather current, ForecastData forecast) {}
+}
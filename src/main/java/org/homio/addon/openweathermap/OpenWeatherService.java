@@ -3,30 +3,21 @@ package org.homio.addon.openweathermap;
 import static org.homio.addon.openweathermap.OpenWeatherEntity.WEATHER_PROVIDER;
 import static org.homio.api.util.Lang.CURRENT_LANG;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
-import org.apache.commons.text.StringSubstitutor;
+import java.util.function.Consumer;
+import org.homio.addon.openweathermap.GeolocationCache.GeoPoint;
+import org.homio.addon.openweathermap.OpenWeatherEntity.WeatherApi;
+import org.homio.addon.openweathermap.QuotaManager.QuotaUsage;
+import org.homio.addon.openweathermap.VariableIndex.StoredEntry;
 import org.homio.api.Context;
 import org.homio.api.ContextBGP;
 import org.homio.api.ContextBGP.ThreadContext;
@@ -39,119 +30,84 @@ import org.homio.api.service.EntityService.ServiceInstance;
 import org.homio.api.service.WeatherEntity.WeatherInfo;
 import org.homio.api.service.WeatherEntity.WeatherInfoType;
 import org.homio.api.service.WeatherEntity.WeatherService;
+import org.homio.api.util.CommonUtils;
 import org.homio.api.widget.CustomWidgetDataStore;
-import org.homio.hquery.Curl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class OpenWeatherService extends ServiceInstance<OpenWeatherEntity>
     implements HasDescription, WeatherService {
 
-  private static final Map<Integer, Double> HOUR_WEIGHTS =
-      Map.of(
-          0,
-          0.5,
-          3,
-          0.5,
-          6,
-          0.75, // Night and morning
-          9,
-          1.0,
-          12,
-          1.0,
-          15,
-          1.0, // Day
-          18,
-          0.75,
-          21,
-          0.5 // Evening
-          );
-
-  private static final List<String> WEATHER_PRIORITY =
-      List.of(
-          "11", // Thunderstorm
-          "09",
-          "10", // Rain
-          "13", // Snow
-          "50", // Mist/Fog
-          "04",
-          "03",
-          "02", // Clouds
-          "01" // Clear
-          );
-
-  private static final String ONECALL_URL =
-      "https://api.openweathermap.org/data/2.5/weather?lat=${lat}&lon=${lon}&appid=${key}&units=${unit}&lang=${lang}";
-
-  private static final String FORECAST_URL =
-      "https://api.openweathermap.org/data/2.5/forecast?lat=${lat}&lon=${lon}&appid=${key}&units=${unit}&lang=${lang}";
-
-  private final Map<String, Variable> owmVariables = new ConcurrentHashMap<>();
+  // how often scheduler is asked for due cities. Actual refresh rate is per city
+  private static final Duration REFRESH_TICK = Duration.ofSeconds(15);
+  // full variable scan picking up variables which appeared without created hook
+  private static final Duration RECONCILE_INTERVAL = Duration.ofHours(1);
+
+  private final VariableIndex variableIndex;
   private final Map<String, WidgetInfo> widgetListeners = new ConcurrentHashMap<>();
 
-  private final LoadingCache<String, JsonNode> dataCache;
+  private final OpenWeatherCache weatherCache;
+  private final ChangeDetector changeDetector = new ChangeDetector();
+  private final WidgetProtocol widgetProtocol;
+  private final WeatherTick weatherTick;
   private ThreadContext<Void> weatherListeners;
+  private ThreadContext<Void> variableReconcile;
+  // entity deadbands last passed to tick, re-parsed when entity value changes
+  private String deadbandSpec;
+  // unit/lang part of widget groups last passed to tick
+  private String widgetGroup;
+  // startup test doesn't wait for network once cache is restored from snapshot
+  private boolean warmStarted;
 
   public OpenWeatherService(Context context, OpenWeatherEntity entity) {
     super(context, entity, true, "OpenWeatherMap");
 
-    this.dataCache =
-        CacheBuilder.newBuilder()
-            .expireAfterWrite(1, TimeUnit.MINUTES)
-            .build(
-                new CacheLoader<>() {
-                  @Override
-                  public @NotNull JsonNode load(@NotNull String city) {
-                    CityGeolocation cityInfo = context.network().getCityGeolocation(city);
-                    var weather =
-                        Curl.get(
-                            buildWeatherRequest(cityInfo.getLat(), cityInfo.getLon())
-                                .replace(ONECALL_URL),
-                            ObjectNode.class);
-                    var forecast =
-                        Curl.get(
-                            buildWeatherRequest(cityInfo.getLat(), cityInfo.getLon())
-                                .replace(FORECAST_URL),
-                            JsonNode.class);
-                    weather.set("forecast", forecast.get("list"));
-                    return weather;
-                  }
-                });
-
-    context.var().onVariableCreated("owm-listener", this::addVariableToListen);
+    this.weatherCache =
+        new OpenWeatherCache(
+            new EntitySettings(),
+            getStoragePath(),
+            city -> {
+              CityGeolocation geolocation = context.network().getCityGeolocation(city);
+              return new GeoPoint(geolocation.getLat(), geolocation.getLon());
+            });
+    weatherCache.bindMetrics(Metrics.globalRegistry, Tags.of("entity", entity.getEntityID()));
+    weatherCache.prefetchIcons();
+    this.widgetProtocol = new WidgetProtocol(weatherCache::getIcon);
+    this.weatherTick =
+        new WeatherTick(weatherCache, changeDetector, widgetProtocol, this::getWidgetGroup);
+
+    this.variableIndex =
+        new VariableIndex(getStoragePath().resolve("variables-" + entity.getEntityID() + ".json"));
+
+    context
+        .var()
+        .onVariableCreated(
+            "owm-listener",
+            (var) -> {
+              if (addVariableToListen(var)) {
+                variableIndex.save();
+              }
+            });
     context
         .var()
         .onVariableRemoved(
             "owm-listener",
             (var) -> {
-              if (owmVariables.remove(var.getId()) != null && owmVariables.isEmpty()) {
-                ContextBGP.cancel(weatherListeners);
-                weatherListeners = null;
+              changeDetector.remove(var.getId());
+              if (variableIndex.remove(var.getId())) {
+                variableIndex.save();
+                createWeatherListenerIfRequire();
               }
             });
-    for (Variable var : context.var().getVariables()) {
-      addVariableToListen(var);
-    }
+    loadVariables();
   }
 
-  private static void overrideDataForCurrentDayFromMainInfo(
-      WeatherInfo info, List<WeatherInfo.DailyForecast> dailyForecasts) {
-    var curDate = Instant.ofEpochMilli(info.getDt()).atZone(ZoneId.systemDefault()).toLocalDate();
-    for (WeatherInfo.DailyForecast dailyForecast : dailyForecasts) {
-      var dayDate =
-          Instant.ofEpochMilli(dailyForecast.getDt()).atZone(ZoneId.systemDefault()).toLocalDate();
-
-      if (dayDate.isEqual(curDate)) {
-        if (info.getMaxTemperature() > dailyForecast.getMaxTemp()) {
-          dailyForecast.setMaxTemp(info.getMaxTemperature());
-        }
-        if (info.getMinTemperature() < dailyForecast.getMinTemp()) {
-          dailyForecast.setMinTemp(info.getMinTemperature());
-        }
-        dailyForecast.setCondition(info.getCondition());
-        dailyForecast.setIcon(info.getIcon());
-      }
-    }
+  static Path getStoragePath() {
+    return CommonUtils.getConfigPath().resolve("openweathermap");
+  }
+
+  public GeoPoint getGeolocation(String city) {
+    return weatherCache.getGeolocation(city);
   }
 
   @Override
@@ -162,93 +118,92 @@ public class OpenWeatherService extends ServiceInstance<OpenWeatherEntity>
     return null;
   }
 
-  protected StringSubstitutor buildWeatherRequest(double latt, double longt) {
-    Map<String, String> valuesMap = new HashMap<>();
-
-    valuesMap.put("lat", String.valueOf(latt));
-    valuesMap.put("lon", String.valueOf(longt));
-    valuesMap.put("unit", entity.getUnit().name());
-    valuesMap.put("key", entity.getApiToken().asString());
-    valuesMap.put("lang", CURRENT_LANG);
-    return new StringSubstitutor(valuesMap);
-  }
-
-  private void addVariableToListen(Variable var) {
-    if (entity.getEntityID().equals(var.getJsonData().optString(WEATHER_PROVIDER))) {
-      owmVariables.put(var.getId(), var);
+  // look up indexed variables by id. Full scan builds index on first start, later it only
+  // reconciles index in background
+  private void loadVariables() {
+    Map<String, StoredEntry> stored = variableIndex.load();
+    if (stored == null) {
+      reconcileVariables();
+      variableIndex.save();
+    } else {
+      stored.forEach(
+          (variableId, entry) -> {
+            Variable var = context.var().getVariable(variableId);
+            if (var != null) {
+              variableIndex.put(var, entry.city(), entry.type());
+            }
+          });
+      variableIndex.save();
       createWeatherListenerIfRequire();
     }
+    variableReconcile =
+        context
+            .bgp()
+            .builder("owm-variable-reconcile")
+            .delay(RECONCILE_INTERVAL)
+            .interval(RECONCILE_INTERVAL)
+            .execute(this::reconcileVariables);
   }
 
-  @SneakyThrows
-  @Override
-  public @NotNull WeatherInfo readWeather(@NotNull String city, @Nullable Long timestamp) {
-    if (timestamp != null) {
-      throw new RuntimeException("Not implemented yet");
+  // variables created or edited while service wasn't running (i.e. imported) fire no hooks
+  private void reconcileVariables() {
+    Set<String> removed = new HashSet<>(variableIndex.getVariableIds());
+    boolean changed = false;
+    for (Variable var : context.var().getVariables()) {
+      if (isOwnVariable(var)) {
+        removed.remove(var.getId());
+        changed |= addVariableToListen(var);
+      }
     }
-    JsonNode json = dataCache.get(city);
-    WeatherInfo info = new WeatherInfo();
-    info.setDt(json.get("dt").asLong() * 1000);
-    JsonNode main = json.get("main");
-    info.setPressure(main.get("pressure").asDouble());
-    info.setTemperature(main.get("temp").asDouble());
-    info.setHumidity(main.get("humidity").asDouble());
-    info.setPressure(main.get("pressure").asDouble());
-    info.setFeelsLike(main.get("feels_like").asDouble());
-    info.setMinTemperature(main.get("temp_min").asDouble());
-    info.setMaxTemperature(main.get("temp_max").asDouble());
-    info.setVisibility(json.get("visibility").asDouble());
-    info.setSunrise(json.get("sys").get("sunrise").asLong() * 1000);
-    info.setSunset(json.get("sys").get("sunset").asLong() * 1000);
-    info.setWindDegree(json.path("wind").path("deg").asDouble());
-    info.setWindSpeed(json.path("wind").path("speed").asDouble());
-    info.setClouds(json.path("clouds").path("all").asDouble());
-    info.setCity(json.get("name").asText());
-    info.setRainSpeed(json.path("rain").path("1h").asDouble());
-    var weather = json.withArray("weather").get(0);
-    info.setIcon(weather.get("icon").asText());
-    info.setCondition(weather.path("main").asText());
-
-    JsonNode forecast = json.get("forecast");
-    if (forecast != null) {
-      info.setForecast(processForecast(forecast, info));
+    for (String variableId : removed) {
+      changeDetector.remove(variableId);
+      changed |= variableIndex.remove(variableId);
     }
-
-    return info;
+    if (changed) {
+      variableIndex.save();
+    }
+    createWeatherListenerIfRequire();
   }
 
-  private List<WeatherInfo.DailyForecast> processForecast(JsonNode forecast, WeatherInfo info) {
-    Map<String, DailyForecastData> dailyData = new HashMap<>();
-    DateTimeFormatter dateFormatter =
-        DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
-
-    for (JsonNode entry : forecast) {
-      long dt = entry.get("dt").asLong() * 1000;
-      String date = dateFormatter.format(Instant.ofEpochMilli(dt));
-      int hour = Instant.ofEpochMilli(dt).atZone(ZoneId.systemDefault()).getHour();
-
-      dailyData.computeIfAbsent(date, k -> new DailyForecastData(dt));
-
-      ArrayNode weather = entry.withArray("weather");
-      Optional<JsonNode> weatherNode =
-          Optional.ofNullable(weather).filter(w -> !w.isEmpty()).map(w -> w.get(0));
-      String icon = weatherNode.map(w -> w.get("icon").asText()).orElse("01d");
-      String condition = weatherNode.map(w -> w.get("main").asText()).orElse("Unknown");
+  private boolean isOwnVariable(Variable var) {
+    return entity.getEntityID().equals(var.getJsonData().optString(WEATHER_PROVIDER));
+  }
 
-      double weight = HOUR_WEIGHTS.getOrDefault(hour, 0.5);
-      dailyData.get(date).addWeightedData(icon, condition, weight);
-      dailyData.get(date).addHours(entry);
+  // @return true if variable belongs to entity and index changed
+  private boolean addVariableToListen(Variable var) {
+    if (!isOwnVariable(var)) {
+      return false;
     }
+    var data = var.getJsonData();
+    WeatherInfoType type;
+    try {
+      type = WeatherInfoType.valueOf(data.getString("type"));
+    } catch (Exception ex) {
+      log.warn("Skip weather variable {} with invalid type: {}", var.getId(), ex.getMessage());
+      return false;
+    }
+    boolean changed = variableIndex.put(var, data.getString("city"), type);
+    createWeatherListenerIfRequire();
+    return changed;
+  }
 
-    var dailyForecasts =
-        dailyData.values().stream()
-            .sorted(Comparator.comparing(DailyForecastData::getDt))
-            .map(DailyForecastData::toDailyForecast)
-            .collect(Collectors.toList());
-    // override current date
-    overrideDataForCurrentDayFromMainInfo(info, dailyForecasts);
+  @Override
+  public @NotNull WeatherInfo readWeather(@NotNull String city, @Nullable Long timestamp) {
+    if (timestamp != null) {
+      WeatherInfo info = weatherCache.getHistoricalWeather(city, timestamp);
+      if (info == null) {
+        throw new IllegalArgumentException(
+            "No weather history of city: %s at %s"
+                .formatted(city, Instant.ofEpochMilli(timestamp)));
+      }
+      return info;
+    }
+    return weatherCache.getWeatherInfo(city);
+  }
 
-    return dailyForecasts;
+  /** Locally stored weather of city measured within [from, to] epoch millis */
+  public @NotNull List<WeatherInfo> readWeatherHistory(@NotNull String city, long from, long to) {
+    return weatherCache.getWeatherHistory(city, from, to);
   }
 
   @Override
@@ -259,25 +214,30 @@ public class OpenWeatherService extends ServiceInstance<OpenWeatherEntity>
   @Override
   public void destroy(boolean forRestart, @Nullable Exception ex) {
     ContextBGP.cancel(weatherListeners);
+    ContextBGP.cancel(variableReconcile);
+    weatherCache.close();
+  }
+
+  public QuotaUsage getQuotaUsage() {
+    return weatherCache.getQuotaUsage();
+  }
+
+  WeatherMetrics getMetrics() {
+    return weatherCache.getMetrics();
   }
 
-  @SneakyThrows
-  private Double readWeather(Variable variable) {
-    var json = dataCache.get(variable.getJsonData().getString("city"));
-    return switch (WeatherInfoType.valueOf(variable.getJsonData().getString("type"))) {
-      case Temperature -> json.get("main").get("temp").asDouble();
-      case Pressure -> json.get("main").get("pressure").asDouble();
-      case Humidity -> json.get("main").get("humidity").asDouble();
-      case WindSpeed -> json.get("wind").get("speed").asDouble();
-      case WindDegree -> json.get("wind").get("deg").asDouble();
-      case FeelsLike -> json.get("main").get("feels_like").asDouble();
-      case Visibility -> json.get("visibility").asDouble();
-      case Clouds -> json.get("clouds").get("all").asDouble();
-    };
+  public String getCacheStats() {
+    return weatherCache.getCacheStats();
   }
 
   @Override
   protected void initialize() {
+    if (weatherCache.isRestored() && !warmStarted) {
+      // weather restored from snapshot is served right away, api access is verified in background
+      warmStarted = true;
+      context.bgp().builder("owm-test-service").execute(this::testServiceWithSetStatus);
+      return;
+    }
     testServiceWithSetStatus();
   }
 
@@ -290,24 +250,46 @@ public class OpenWeatherService extends ServiceInstance<OpenWeatherEntity>
       CustomWidgetDataStore widgetDataStore,
       @NotNull String widgetEntityID,
       @NotNull JSON widgetData) {
-    widgetListeners.put(widgetEntityID, new WidgetInfo(widgetDataStore, widgetData));
+    WidgetInfo widget = new WidgetInfo(widgetData, widgetDataStore::update);
+    widgetListeners.put(widgetEntityID, widget);
     createWeatherListenerIfRequire();
-    setWidgetDataToUI();
+    subscribeWidget(widgetEntityID, widget);
   }
 
-  public void setWidgetDataToUI() {
-    for (WidgetInfo info : widgetListeners.values()) {
-      info.store.update(readWeather(info.widgetData.getString("city"), null));
+  public void removeWidgetDataStore(@NotNull String widgetEntityID) {
+    synchronized (widgetListeners) {
+      WidgetInfo widget = widgetListeners.remove(widgetEntityID);
+      if (widget != null) {
+        widgetProtocol.unsubscribe(widgetEntityID, widget.sink);
+      }
     }
+    createWeatherListenerIfRequire();
   }
 
-  public void removeWidgetDataStore(@NotNull String widgetEntityID) {
-    widgetListeners.remove(widgetEntityID);
-    createWeatherListenerIfRequire();
+  // only (re)subscribed widget gets data: full snapshot of it's group, from cache if possible.
+  // Never blocks caller, concurrent subscriptions of not cached city share single fetch
+  private void subscribeWidget(String widgetEntityID, WidgetInfo widget) {
+    String city = widget.widgetData.getString("city");
+    weatherCache
+        .getWeatherInfoAsync(city)
+        .thenAccept(
+            info -> {
+              synchronized (widgetListeners) {
+                // widget was removed or replaced while weather was loading
+                if (widgetListeners.get(widgetEntityID) == widget) {
+                  widgetProtocol.subscribe(getWidgetGroup(city), widgetEntityID, widget.sink, info);
+                }
+              }
+            })
+        .exceptionally(
+            ex -> {
+              log.warn("Unable to send weather to widget: {}. City: {}", widgetEntityID, city, ex);
+              return null;
+            });
   }
 
   private void createWeatherListenerIfRequire() {
-    if (owmVariables.isEmpty() && widgetListeners.isEmpty() && weatherListeners != null) {
+    if (variableIndex.isEmpty() && widgetListeners.isEmpty() && weatherListeners != null) {
       weatherListeners.cancel();
       weatherListeners = null;
       return;
@@ -319,98 +301,103 @@ public class OpenWeatherService extends ServiceInstance<OpenWeatherEntity>
         context
             .bgp()
             .builder("owm-weather")
-            .interval(Duration.ofMinutes(entity.getRefreshRate()))
+            .interval(REFRESH_TICK)
             .execute(this::updateListeners);
   }
 
   private void updateListeners() {
-    setWidgetDataToUI();
-    for (Variable variable : owmVariables.values()) {
-      try {
-        variable.set(readWeather(variable));
-      } catch (Exception ex) {
-        log.warn(
-            "Unable to read weather info for city: {}",
-            variable.getJsonData().optString("city"),
-            ex);
+    // unit or language changed, widgets move to groups which render new ones
+    String widgetGroup = getWidgetGroup("");
+    if (!widgetGroup.equals(this.widgetGroup)) {
+      if (this.widgetGroup != null) {
+        widgetListeners.forEach(this::subscribeWidget);
       }
+      this.widgetGroup = widgetGroup;
+    }
+    Set<String> widgetCities = new HashSet<>();
+    for (WidgetInfo info : widgetListeners.values()) {
+      widgetCities.add(info.widgetData.getString("city"));
     }
+    if (!entity.getDeadbands().equals(deadbandSpec)) {
+      deadbandSpec = entity.getDeadbands();
+      weatherTick.setDeadbands(ChangeDetector.parseDeadbands(deadbandSpec));
+    }
+    weatherTick.run(variableIndex.getByCity(), widgetCities);
+  }
+
+  // widgets of same city share payload, unit and language are part of rendered data
+  private String getWidgetGroup(String city) {
+    return city + "/" + entity.getUnit() + "/" + CURRENT_LANG;
   }
 
-  @Getter
-  @RequiredArgsConstructor
-  private static class DailyForecastData {
-    private final long dt;
-    private final Map<String, Double> weightedWeatherConditions = new HashMap<>();
-    private final Map<String, Double> weightedIconCounts = new HashMap<>();
-    private final List<JsonNode> hours = new ArrayList<>();
-
-    public void addWeightedData(String icon, String condition, double weight) {
-      weightedWeatherConditions.merge(condition, weight, Double::sum);
-      weightedIconCounts.merge(icon, weight, Double::sum);
+  /** @param sink - pushes to store, identifies subscription of widget in WidgetProtocol */
+  private record WidgetInfo(JSON widgetData, Consumer<WidgetPayload> sink) {}
+
+  private class EntitySettings implements OpenWeatherCache.Settings {
+
+    @Override
+    public String getApiUrl() {
+      return entity.getApiUrl();
     }
 
-    public String getMostFrequentWeatherCondition() {
-      return weightedWeatherConditions.entrySet().stream()
-          .max(Map.Entry.comparingByValue())
-          .map(Map.Entry::getKey)
-          .orElse("Unknown");
+    @Override
+    public String getApiKey() {
+      return entity.getApiToken().asString();
     }
 
-    private String determinePrioritizedIcon() {
-      return WEATHER_PRIORITY.stream()
-          .flatMap(
-              priority ->
-                  weightedIconCounts.entrySet().stream()
-                      .filter(e -> e.getKey().startsWith(priority))
-                      .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
-                      .map(Map.Entry::getKey))
-          .findFirst()
-          .orElse("01d");
+    @Override
+    public String getUnit() {
+      return entity.getUnit().name();
     }
 
-    public WeatherInfo.DailyForecast toDailyForecast() {
-      String dayOfWeek =
-          DateTimeFormatter.ofPattern("EEE")
-              .format(Instant.ofEpochMilli(dt).atZone(ZoneId.systemDefault()));
-      var hours = new LinkedHashMap<Long, WeatherInfo.HourWeatherInfo>();
-      double minTemp = Double.MAX_VALUE;
-      double maxTemp = Double.MIN_VALUE;
-      for (JsonNode hour : this.hours) {
-        long dt = hour.get("dt").asLong() * 1000;
-        double temp = hour.get("main").get("temp").asDouble();
-        double humidity = hour.get("main").get("humidity").asDouble();
-        double pressure = hour.get("main").get("pressure").asDouble();
-        double feelsLike = hour.get("main").get("feels_like").asDouble();
-        double speed = hour.get("wind").get("speed").asDouble();
-        double deg = hour.get("wind").get("deg").asDouble();
-        double min = hour.get("main").get("temp_min").asDouble();
-        double max = hour.get("main").get("temp_max").asDouble();
-        String condition = hour.withArray("weather").get(0).get("description").asText();
-        String icon = hour.withArray("weather").get(0).get("icon").asText();
-        hours.put(
-            dt,
-            new WeatherInfo.HourWeatherInfo(
-                min, max, temp, feelsLike, humidity, pressure, speed, deg, icon, condition, dt));
-
-        minTemp = Math.min(minTemp, min);
-        maxTemp = Math.max(maxTemp, max);
-      }
+    @Override
+    public String getLang() {
+      return CURRENT_LANG;
+    }
 
-      return new WeatherInfo.DailyForecast(
-          dt,
-          dayOfWeek,
-          determinePrioritizedIcon(),
-          minTemp,
-          maxTemp,
-          getMostFrequentWeatherCondition(),
-          hours);
+    @Override
+    public double getLocationGrid() {
+      return entity.getLocationGrid();
     }
 
-    public void addHours(JsonNode hours) {
-      this.hours.add(hours);
+    @Override
+    public boolean isOneCall() {
+      return entity.getApi() == WeatherApi.oneCall3_0;
+    }
+
+    @Override
+    public int getRefreshRate() {
+      return entity.getRefreshRate();
+    }
+
+    @Override
+    public int getMaxStaleness() {
+      return entity.getMaxStaleness();
     }
-  }
 
-  private record WidgetInfo(CustomWidgetDataStore store, JSON widgetData) {}
+    @Override
+    public int getCallsPerMinute() {
+      return entity.getCallsPerMinute();
+    }
+
+    @Override
+    public int getCallsPerMonth() {
+      return entity.getCallsPerMonth();
+    }
+
+    @Override
+    public int getHistoryRetention() {
+      return entity.getHistoryRetention();
+    }
+
+    @Override
+    public int getHistoryFullResolution() {
+      return entity.getHistoryFullResolution();
+    }
+
+    @Override
+    public boolean isRefreshIcons() {
+      return entity.isRefreshIcons();
+    }
+  }
 }
@@ -0,0 +1,367 @@
+package org.homio.addon.openweathermap;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.homio.addon.openweathermap.OpenWeatherClient.HttpStatusException;
+
+/**
+ * Quota aware gate in front of every OWM request. Calls per minute are limited by token bucket and
+ * calls per month by plain counter. 429/Retry-After and repeated failures back off exponentially,
+ * after {@link #FAILURE_THRESHOLD} consecutive failures circuit opens and requests are rejected
+ * without touching network until backoff passes and single trial request succeeds.
+ *
+ * <p>Calls of current month are persisted, so restarts don't reset monthly budget.
+ */
+@Log4j2
+class QuotaManager {
+
+  // consecutive failures which open the circuit
+  private static final int FAILURE_THRESHOLD = 5;
+  private static final Duration MIN_BACKOFF = Duration.ofSeconds(10);
+  private static final Duration MAX_BACKOFF = Duration.ofMinutes(30);
+  // request waits for token/Retry-After at most this long, otherwise it's rejected
+  private static final Duration MAX_WAIT = Duration.ofSeconds(30);
+
+  private final IntSupplier callsPerMinute;
+  private final IntSupplier callsPerMonth;
+  private final Path file;
+  private final Executor saveExecutor;
+  // epoch millis
+  private final LongSupplier clock;
+  // lock instead of synchronized, callers are virtual threads
+  private final ReentrantLock lock = new ReentrantLock();
+  private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+  private double tokens;
+  private long refilledAt = System.nanoTime();
+  private YearMonth month;
+  private long monthCalls;
+  private long totalCalls;
+  private long rejectedCalls;
+  private int consecutiveFailures;
+  // times circuit opened without successful request in between, drives circuit backoff
+  private int openings;
+  private volatile CircuitState state = CircuitState.CLOSED;
+  private boolean trialInFlight;
+  // epoch millis before which no request is sent (Retry-After or open circuit)
+  private long blockedUntil;
+
+  /**
+   * @param file - json file with calls of current month
+   * @param saveExecutor - writes file after calls, multiple calls are coalesced into single write
+   */
+  QuotaManager(
+      IntSupplier callsPerMinute, IntSupplier callsPerMonth, Path file, Executor saveExecutor) {
+    this(callsPerMinute, callsPerMonth, file, saveExecutor, System::currentTimeMillis);
+  }
+
+  QuotaManager(
+      IntSupplier callsPerMinute,
+      IntSupplier callsPerMonth,
+      Path file,
+      Executor saveExecutor,
+      LongSupplier clock) {
+    this.callsPerMinute = callsPerMinute;
+    this.callsPerMonth = callsPerMonth;
+    this.file = file;
+    this.saveExecutor = saveExecutor;
+    this.clock = clock;
+    this.tokens = callsPerMinute.getAsInt();
+    this.month = currentMonth();
+    load();
+  }
+
+  /**
+   * Run request once quota allows it.
+   *
+   * @throws RequestRejectedException if circuit is open or quota won't allow request in time
+   */
+  @SneakyThrows
+  <T> T execute(Supplier<T> request) {
+    boolean trial = acquire();
+    try {
+      T result = request.get();
+      onSuccess();
+      return result;
+    } catch (Throwable ex) {
+      // client sneaky throws IOExceptions, unreachable OWM has to open circuit as well
+      if (!(ex instanceof InterruptedException)) {
+        onFailure(ex);
+      }
+      throw ex;
+    } finally {
+      if (trial) {
+        endTrial();
+      }
+    }
+  }
+
+  boolean isCircuitOpen() {
+    return state != CircuitState.CLOSED;
+  }
+
+  QuotaUsage getUsage() {
+    lock.lock();
+    try {
+      refill(System.nanoTime());
+      return new QuotaUsage(
+          (int) tokens,
+          callsPerMinute.getAsInt(),
+          monthCalls,
+          callsPerMonth.getAsInt(),
+          totalCalls,
+          rejectedCalls,
+          state,
+          blockedUntil > clock.getAsLong() ? Instant.ofEpochMilli(blockedUntil) : null);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // @return true if permit is the single trial request of half open circuit
+  @SneakyThrows
+  private boolean acquire() {
+    while (true) {
+      long waitMillis = tryAcquire();
+      if (waitMillis <= 0) {
+        return waitMillis < 0;
+      }
+      Thread.sleep(waitMillis);
+    }
+  }
+
+  // @return 0 if permit acquired, -1 if trial permit acquired, otherwise millis to wait
+  private long tryAcquire() {
+    lock.lock();
+    try {
+      long now = clock.getAsLong();
+      if (state == CircuitState.OPEN) {
+        if (now < blockedUntil) {
+          throw reject("Circuit is open until " + Instant.ofEpochMilli(blockedUntil));
+        }
+        state = CircuitState.HALF_OPEN;
+      }
+      if (state == CircuitState.HALF_OPEN) {
+        if (trialInFlight) {
+          throw reject("Circuit is half open, waiting for trial request");
+        }
+      } else if (now < blockedUntil) {
+        return waitOrReject(blockedUntil - now, "Rate limited by OpenWeatherMap");
+      }
+
+      YearMonth currentMonth = currentMonth();
+      if (!currentMonth.equals(month)) {
+        month = currentMonth;
+        monthCalls = 0;
+      }
+      if (monthCalls >= callsPerMonth.getAsInt()) {
+        throw reject("Monthly quota of %s calls exhausted".formatted(callsPerMonth.getAsInt()));
+      }
+
+      long nanos = System.nanoTime();
+      refill(nanos);
+      if (tokens < 1) {
+        double tokensPerMilli = callsPerMinute.getAsInt() / 60_000D;
+        return waitOrReject((long) Math.ceil((1 - tokens) / tokensPerMilli), "Minute quota");
+      }
+      tokens--;
+      monthCalls++;
+      totalCalls++;
+      scheduleSave();
+      trialInFlight = state == CircuitState.HALF_OPEN;
+      return trialInFlight ? -1 : 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long waitOrReject(long waitMillis, String reason) {
+    if (waitMillis > MAX_WAIT.toMillis()) {
+      throw reject(reason + ": no permit for next " + Duration.ofMillis(waitMillis));
+    }
+    return Math.max(1, waitMillis);
+  }
+
+  private void refill(long nanos) {
+    int capacity = callsPerMinute.getAsInt();
+    double refilled = (nanos - refilledAt) / 60e9 * capacity;
+    tokens = Math.min(capacity, tokens + refilled);
+    refilledAt = nanos;
+  }
+
+  private void onSuccess() {
+    lock.lock();
+    try {
+      if (state != CircuitState.CLOSED) {
+        log.info("OpenWeatherMap requests succeed again, close circuit");
+      }
+      consecutiveFailures = 0;
+      openings = 0;
+      state = CircuitState.CLOSED;
+      trialInFlight = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // trial must never stay in flight, otherwise half open circuit rejects everything forever
+  private void endTrial() {
+    lock.lock();
+    try {
+      trialInFlight = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void onFailure(Throwable ex) {
+    HttpStatusException statusException = ex instanceof HttpStatusException se ? se : null;
+    lock.lock();
+    try {
+      // requests sent before circuit opened must not extend it
+      if (state == CircuitState.OPEN) {
+        return;
+      }
+      trialInFlight = false;
+      // wrong city/request is not a sign of OWM availability
+      if (statusException != null && statusException.isClientError()) {
+        if (state == CircuitState.HALF_OPEN) {
+          state = CircuitState.CLOSED;
+        }
+        return;
+      }
+      consecutiveFailures++;
+      long retryAfter =
+          statusException != null && statusException.getRetryAfter() != null
+              ? statusException.getRetryAfter().toMillis()
+              : 0;
+      if (state == CircuitState.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+        openings++;
+        long backoff = Math.max(backoff(openings).toMillis(), retryAfter);
+        if (state == CircuitState.CLOSED) {
+          log.warn(
+              "OpenWeatherMap failed {} times in a row, open circuit for {}",
+              consecutiveFailures,
+              Duration.ofMillis(backoff));
+        }
+        state = CircuitState.OPEN;
+        blockedUntil = clock.getAsLong() + backoff;
+      } else if (statusException != null && statusException.isRateLimited()) {
+        long backoff = Math.max(backoff(consecutiveFailures).toMillis(), retryAfter);
+        blockedUntil = clock.getAsLong() + backoff;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Write calls of current month now, i.e. on close */
+  void save() {
+    StoredQuota stored;
+    lock.lock();
+    try {
+      stored = new StoredQuota(month.toString(), monthCalls);
+    } finally {
+      lock.unlock();
+    }
+    try {
+      JsonFiles.writeJsonAtomically(file, stored);
+    } catch (Exception ex) {
+      log.warn("Unable to save OpenWeatherMap quota: {}", file, ex);
+    }
+  }
+
+  private void load() {
+    if (!Files.exists(file)) {
+      return;
+    }
+    try {
+      StoredQuota stored = JsonFiles.OBJECT_MAPPER.readValue(file.toFile(), StoredQuota.class);
+      // counter of previous month is not relevant anymore
+      if (month.toString().equals(stored.month())) {
+        monthCalls = stored.calls();
+      }
+    } catch (Exception ex) {
+      log.warn("Unable to read OpenWeatherMap quota: {}", file, ex);
+    }
+  }
+
+  // coalesce calls into single write
+  private void scheduleSave() {
+    if (saveScheduled.compareAndSet(false, true)) {
+      saveExecutor.execute(
+          () -> {
+            saveScheduled.set(false);
+            save();
+          });
+    }
+  }
+
+  private RequestRejectedException reject(String message) {
+    rejectedCalls++;
+    return new RequestRejectedException(message);
+  }
+
+  // MIN_BACKOFF doubled per attempt
+  private static Duration backoff(int attempt) {
+    int exponent = Math.min(attempt - 1, 16);
+    Duration backoff = MIN_BACKOFF.multipliedBy(1L << exponent);
+    return backoff.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff;
+  }
+
+  private YearMonth currentMonth() {
+    return YearMonth.from(Instant.ofEpochMilli(clock.getAsLong()).atOffset(ZoneOffset.UTC));
+  }
+
+  enum CircuitState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /**
+   * @param blockedUntil - time until which requests are held back, null if not blocked
+   */
+  record QuotaUsage(
+      int minuteTokens,
+      int callsPerMinute,
+      long monthCalls,
+      int callsPerMonth,
+      long totalCalls,
+      long rejectedCalls,
+      CircuitState state,
+      Instant blockedUntil) {
+
+    @Override
+    public String toString() {
+      return "%s/%s per month, %s/%s tokens, %s".formatted(
+          monthCalls,
+          callsPerMonth,
+          minuteTokens,
+          callsPerMinute,
+          blockedUntil == null ? state : state + " until " + blockedUntil);
+    }
+  }
+
+  private record StoredQuota(String month, long calls) {}
+
+  /** Request was not sent to OWM due to quota or open circuit. Cached data should be used. */
+  static class RequestRejectedException extends IllegalStateException {
+
+    RequestRejectedException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package org.homio.addon.openweathermap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Per-city next due time. City is refreshed once refresh rate passed since last fetch, but not
+ * before OWM is expected to publish next observation (last 'dt' plus observed provider cadence).
+ * Every due time is shifted by random jitter, so cities drift apart and requests don't burst.
+ * Refresh rate is read on every poll, so changes apply without restart.
+ */
+class RefreshScheduler {
+
+  // +- fraction of refresh rate added to every due time
+  private static final double JITTER = 0.1;
+  // OWM publishes observation some time after it's 'dt'
+  private static final long PROVIDER_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+  private final IntSupplier refreshRate;
+  private final Map<String, CityState> cities = new ConcurrentHashMap<>();
+
+  /**
+   * @param refreshRate - minutes between refreshes of city
+   */
+  RefreshScheduler(IntSupplier refreshRate) {
+    this.refreshRate = refreshRate;
+  }
+
+  /**
+   * Mark listened cities which are due as in flight and return them. Cities not passed here are
+   * refreshed only on read.
+   */
+  List<String> pollDue(Set<String> listenedCities, long now) {
+    long rate = getRate();
+    List<String> due = new ArrayList<>();
+    for (String city : listenedCities) {
+      CityState state = cities.computeIfAbsent(city, c -> new CityState());
+      synchronized (state) {
+        state.listened = true;
+        if (!state.inFlight && state.getDueTime(rate) <= now) {
+          state.inFlight = true;
+          due.add(city);
+        }
+      }
+    }
+    for (Map.Entry<String, CityState> entry : cities.entrySet()) {
+      if (!listenedCities.contains(entry.getKey())) {
+        entry.getValue().listened = false;
+      }
+    }
+    return due;
+  }
+
+  /** Read of city which has no listeners. @return true if caller should refresh city */
+  boolean pollDueOnRead(String city, long now) {
+    CityState state = cities.computeIfAbsent(city, c -> new CityState());
+    synchronized (state) {
+      if (state.listened || state.inFlight || state.getDueTime(getRate()) > now) {
+        return false;
+      }
+      state.inFlight = true;
+      return true;
+    }
+  }
+
+  /**
+   * @param weather - fetched weather or null if refresh failed
+   */
+  void onRefreshed(String city, @Nullable CurrentWeather weather, long now) {
+    CityState state = cities.computeIfAbsent(city, c -> new CityState());
+    synchronized (state) {
+      state.inFlight = false;
+      state.refreshedAt = now;
+      state.jitter = ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+      if (weather != null && weather.dt() > 0) {
+        long dt = weather.dt() * 1000;
+        if (state.dt > 0 && dt > state.dt) {
+          long interval = dt - state.dt;
+          state.cadence =
+              state.cadence == 0 ? interval : (long) (state.cadence * 0.7 + interval * 0.3);
+        }
+        state.dt = Math.max(state.dt, dt);
+      }
+    }
+  }
+
+  // drop cities which are neither listened nor cached
+  void cleanUp(Set<String> cachedCities) {
+    cities.entrySet().removeIf(e -> !e.getValue().listened && !cachedCities.contains(e.getKey()));
+  }
+
+  private long getRate() {
+    return TimeUnit.MINUTES.toMillis(refreshRate.getAsInt());
+  }
+
+  private static class CityState {
+
+    private volatile boolean listened;
+    private boolean inFlight;
+    // 0 - never fetched, due immediately
+    private long refreshedAt;
+    private double jitter;
+    // observation time of last fetched weather
+    private long dt;
+    // smoothed interval between OWM observations, 0 until two different 'dt' were seen
+    private long cadence;
+
+    private long getDueTime(long rate) {
+      if (refreshedAt == 0) {
+        return 0;
+      }
+      long due = refreshedAt + rate;
+      if (cadence > 0) {
+        // no reason to poll before provider publishes next observation
+        long expected = dt + cadence + PROVIDER_DELAY;
+        due = Math.max(due, Math.min(expected, refreshedAt + Math.max(rate, cadence)));
+      }
+      return due + (long) (rate * jitter);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.ContextVar.Variable;
+import org.homio.api.service.WeatherEntity.WeatherInfoType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Weather variables owned by entity, grouped by city and type. Ids are persisted with their city
+ * and type, so startup looks up own variables only instead of scanning every Homio variable. Kept
+ * current by variable created/removed hooks and periodic background reconcile.
+ */
+@Log4j2
+class VariableIndex {
+
+  private final Path file;
+  // variable id -> indexed variable
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  // rebuilt on first read after change, variables change rarely compared to weather ticks.
+  // Changes and rebuild share monitor, so stale grouping is never cached after a change
+  private volatile Map<String, Map<WeatherInfoType, List<Variable>>> byCity;
+
+  VariableIndex(Path file) {
+    this.file = file;
+  }
+
+  /** @return persisted variable id -> city/type or null if index was never saved */
+  @Nullable
+  Map<String, StoredEntry> load() {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try {
+      return JsonFiles.OBJECT_MAPPER.readValue(
+          file.toFile(), new TypeReference<Map<String, StoredEntry>>() {});
+    } catch (Exception ex) {
+      log.warn("Unable to read weather variable index: {}", file, ex);
+      return null;
+    }
+  }
+
+  /** @return false if variable was indexed already with same city and type */
+  synchronized boolean put(
+      @NotNull Variable variable, @NotNull String city, @NotNull WeatherInfoType type) {
+    Entry previous = entries.put(variable.getId(), new Entry(variable, city, type));
+    byCity = null;
+    return previous == null || !previous.city.equals(city) || previous.type != type;
+  }
+
+  synchronized boolean remove(@NotNull String variableId) {
+    if (entries.remove(variableId) == null) {
+      return false;
+    }
+    byCity = null;
+    return true;
+  }
+
+  @NotNull
+  Set<String> getVariableIds() {
+    return Set.copyOf(entries.keySet());
+  }
+
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /** @return city -> type -> variables, unmodifiable snapshot */
+  @NotNull
+  Map<String, Map<WeatherInfoType, List<Variable>>> getByCity() {
+    Map<String, Map<WeatherInfoType, List<Variable>>> result = byCity;
+    return result == null ? rebuild() : result;
+  }
+
+  synchronized void save() {
+    Map<String, StoredEntry> stored = new HashMap<>();
+    entries.forEach((id, entry) -> stored.put(id, new StoredEntry(entry.city, entry.type)));
+    try {
+      JsonFiles.writeJsonAtomically(file, stored);
+    } catch (Exception ex) {
+      log.warn("Unable to save weather variable index: {}", file, ex);
+    }
+  }
+
+  private synchronized Map<String, Map<WeatherInfoType, List<Variable>>> rebuild() {
+    Map<String, Map<WeatherInfoType, List<Variable>>> result = new HashMap<>();
+    for (Entry entry : entries.values()) {
+      result
+          .computeIfAbsent(entry.city, c -> new EnumMap<>(WeatherInfoType.class))
+          .computeIfAbsent(entry.type, t -> new ArrayList<>())
+          .add(entry.variable);
+    }
+    byCity = result;
+    return result;
+  }
+
+  private record Entry(Variable variable, String city, WeatherInfoType type) {}
+
+  // variable objects are re-fetched by id on startup, so only city/type go to disk. Grouping is
+  // restored from them without parsing variable json
+  record StoredEntry(String city, WeatherInfoType type) {}
+}
@@ -0,0 +1,387 @@
+package org.homio.addon.openweathermap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Local time series of fetched weather. One append-only memory mapped file per location with fixed
+ * width records ordered by 'dt', so point and range queries are binary searches over the mapping.
+ * Compaction drops records older than retention and keeps one record per hour for records older
+ * than full resolution period.
+ *
+ * <p>Record layout (80 bytes): dt(8), id(4), 11 float measurements(44), sunrise/sunset as offset
+ * from dt(8), icon(4 ascii), condition(12 ascii).
+ */
+@Log4j2
+class WeatherHistory {
+
+  private static final int MAGIC = 0x4F574D48; // OWMH
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int COUNT_OFFSET = 8;
+  private static final int RECORD_SIZE = 80;
+  private static final int ICON_SIZE = 4;
+  private static final int CONDITION_SIZE = 12;
+  // file grows by this number of records
+  private static final int GROW_RECORDS = 512;
+  private static final long SECONDS_PER_HOUR = 3600;
+
+  private final Path directory;
+  // file name -> history
+  private final Map<String, CityHistory> cities = new ConcurrentHashMap<>();
+  // city as passed by callers -> file name, keeps normalization off read path
+  private final Map<String, String> fileNames = new ConcurrentHashMap<>();
+
+  WeatherHistory(Path directory) {
+    this.directory = directory;
+  }
+
+  /** Append snapshot if it's newer than last stored one */
+  void append(@NotNull String location, @NotNull CurrentWeather weather) {
+    try {
+      getCityHistory(location).append(weather);
+    } catch (Exception ex) {
+      log.warn("Unable to store weather history of location: {}", location, ex);
+    }
+  }
+
+  /**
+   * @param city - name set to returned snapshots, history file is picked by location
+   * @return latest snapshot measured at or before epochSecond
+   */
+  @Nullable
+  CurrentWeather read(@NotNull String location, @NotNull String city, long epochSecond) {
+    return getCityHistory(location).read(city, epochSecond);
+  }
+
+  /** @return snapshots measured within [fromSecond, toSecond] */
+  @NotNull
+  List<CurrentWeather> read(
+      @NotNull String location, @NotNull String city, long fromSecond, long toSecond) {
+    return getCityHistory(location).read(city, fromSecond, toSecond);
+  }
+
+  /**
+   * @param retentionSeconds - records older than this are dropped
+   * @param fullResolutionSeconds - records older than this are reduced to one per hour
+   */
+  void compact(long nowSecond, long retentionSeconds, long fullResolutionSeconds) {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    List<Path> historyFiles;
+    try (var files = Files.list(directory)) {
+      historyFiles = files.filter(f -> f.toString().endsWith(".owmh")).toList();
+    } catch (Exception ex) {
+      log.warn("Unable to list weather history: {}", directory, ex);
+      return;
+    }
+    for (Path file : historyFiles) {
+      try {
+        // files of locations nobody reads or writes are compacted and closed right away, instead
+        // of keeping mapping of every file. Holding entry blocks opening same file meanwhile
+        cities.compute(
+            file.getFileName().toString(),
+            (fileName, active) -> {
+              CityHistory history = active == null ? new CityHistory(fileName) : active;
+              try {
+                history.compact(nowSecond - retentionSeconds, nowSecond - fullResolutionSeconds);
+              } finally {
+                if (active == null) {
+                  history.close();
+                }
+              }
+              return active;
+            });
+      } catch (Exception ex) {
+        log.warn("Unable to compact weather history: {}", file, ex);
+      }
+    }
+  }
+
+  void close() {
+    cities.values().forEach(CityHistory::close);
+    cities.clear();
+  }
+
+  private CityHistory getCityHistory(String city) {
+    String fileName = fileNames.computeIfAbsent(city, WeatherHistory::getFileName);
+    return cities.computeIfAbsent(fileName, CityHistory::new);
+  }
+
+  private static String getFileName(String city) {
+    String key = GeolocationCache.normalizeCity(city);
+    return "%s-%s.owmh"
+        .formatted(key.replaceAll("[^a-z0-9]+", "_"), Integer.toHexString(key.hashCode()));
+  }
+
+  private class CityHistory {
+
+    private final Path file;
+    // reads are few microseconds, single lock for readers and writer is enough
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int count;
+
+    private CityHistory(String fileName) {
+      this.file = directory.resolve(fileName);
+    }
+
+    private void append(CurrentWeather weather) throws IOException {
+      lock.lock();
+      try {
+        open(true);
+        if (count > 0 && buffer.getLong(offset(count - 1)) >= weather.dt()) {
+          return;
+        }
+        ensureCapacity(count + 1);
+        writeRecord(buffer, offset(count), weather);
+        count++;
+        buffer.putInt(COUNT_OFFSET, count);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @SneakyThrows
+    private @Nullable CurrentWeather read(String city, long epochSecond) {
+      lock.lock();
+      try {
+        if (!open(false)) {
+          return null;
+        }
+        // first record after epochSecond, previous one is the answer
+        int index = upperBound(epochSecond) - 1;
+        return index < 0 ? null : readRecord(buffer, offset(index), city);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @SneakyThrows
+    private List<CurrentWeather> read(String city, long fromSecond, long toSecond) {
+      lock.lock();
+      try {
+        List<CurrentWeather> result = new ArrayList<>();
+        if (!open(false)) {
+          return result;
+        }
+        for (int i = upperBound(fromSecond - 1); i < count; i++) {
+          if (buffer.getLong(offset(i)) > toSecond) {
+            break;
+          }
+          result.add(readRecord(buffer, offset(i), city));
+        }
+        return result;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @SneakyThrows
+    private void compact(long dropBefore, long downsampleBefore) {
+      lock.lock();
+      try {
+        if (!open(false) || count == 0) {
+          return;
+        }
+        List<Integer> keep = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          long dt = buffer.getLong(offset(i));
+          if (dt < dropBefore) {
+            continue;
+          }
+          // keep last record of every hour
+          if (dt < downsampleBefore
+              && i + 1 < count
+              && dt / SECONDS_PER_HOUR == buffer.getLong(offset(i + 1)) / SECONDS_PER_HOUR) {
+            continue;
+          }
+          keep.add(i);
+        }
+        if (keep.size() == count) {
+          return;
+        }
+
+        ByteBuffer compacted = ByteBuffer.allocate(offset(keep.size()));
+        writeHeader(compacted, keep.size());
+        for (int i = 0; i < keep.size(); i++) {
+          compacted.put(offset(i), buffer, offset(keep.get(i)), RECORD_SIZE);
+        }
+        close();
+        JsonFiles.writeAtomically(file, compacted.array());
+        log.debug("Compacted weather history {}: {} -> {} records", file, count, keep.size());
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // @return false if file doesn't exist and create is false
+    private boolean open(boolean create) throws IOException {
+      if (buffer != null) {
+        return true;
+      }
+      if (!Files.exists(file)) {
+        if (!create) {
+          return false;
+        }
+        Files.createDirectories(directory);
+      }
+      channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      if (channel.size() < HEADER_SIZE) {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset(GROW_RECORDS));
+        writeHeader(buffer, 0);
+        count = 0;
+        return true;
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+        close();
+        throw new IllegalStateException("Unsupported weather history file: " + file);
+      }
+      count = buffer.getInt(COUNT_OFFSET);
+      return true;
+    }
+
+    private void ensureCapacity(int records) throws IOException {
+      if (offset(records) > buffer.capacity()) {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset(records + GROW_RECORDS));
+      }
+    }
+
+    // index of first record with dt > epochSecond
+    private int upperBound(long epochSecond) {
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (buffer.getLong(offset(mid)) <= epochSecond) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    private void close() {
+      try {
+        if (buffer != null) {
+          buffer.force();
+        }
+        if (channel != null) {
+          channel.close();
+        }
+      } catch (IOException ex) {
+        log.warn("Unable to close weather history: {}", file, ex);
+      }
+      buffer = null;
+      channel = null;
+    }
+  }
+
+  private static int offset(int index) {
+    return HEADER_SIZE + index * RECORD_SIZE;
+  }
+
+  private static void writeHeader(ByteBuffer buffer, int count) {
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(COUNT_OFFSET, count);
+  }
+
+  private static void writeRecord(ByteBuffer buffer, int offset, CurrentWeather weather) {
+    buffer.putLong(offset, weather.dt());
+    buffer.putInt(offset + 8, (int) weather.id());
+    int position = offset + 12;
+    for (double value :
+        new double[] {
+          weather.temperature(),
+          weather.feelsLike(),
+          weather.minTemperature(),
+          weather.maxTemperature(),
+          weather.pressure(),
+          weather.humidity(),
+          weather.visibility(),
+          weather.windSpeed(),
+          weather.windDegree(),
+          weather.clouds(),
+          weather.rain()
+        }) {
+      buffer.putFloat(position, (float) value);
+      position += 4;
+    }
+    buffer.putInt(position, (int) (weather.sunrise() - weather.dt()));
+    buffer.putInt(position + 4, (int) (weather.sunset() - weather.dt()));
+    putAscii(buffer, position + 8, weather.icon(), ICON_SIZE);
+    putAscii(buffer, position + 8 + ICON_SIZE, weather.condition(), CONDITION_SIZE);
+  }
+
+  private static CurrentWeather readRecord(ByteBuffer buffer, int offset, String city) {
+    long dt = buffer.getLong(offset);
+    int position = offset + 12;
+    double[] values = new double[11];
+    for (int i = 0; i < values.length; i++) {
+      // floats are widened back with OWM precision, i.e. 12.43 instead of 12.430000305
+      values[i] = Math.round(buffer.getFloat(position) * 100D) / 100D;
+      position += 4;
+    }
+    return new CurrentWeather(
+        buffer.getInt(offset + 8),
+        dt,
+        city,
+        values[0],
+        values[1],
+        values[2],
+        values[3],
+        values[4],
+        values[5],
+        values[6],
+        values[7],
+        values[8],
+        values[9],
+        values[10],
+        dt + buffer.getInt(position),
+        dt + buffer.getInt(position + 4),
+        getAscii(buffer, position + 8, ICON_SIZE),
+        getAscii(buffer, position + 8 + ICON_SIZE, CONDITION_SIZE));
+  }
+
+  private static void putAscii(ByteBuffer buffer, int offset, String value, int size) {
+    byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.US_ASCII);
+    for (int i = 0; i < size; i++) {
+      buffer.put(offset + i, i < bytes.length ? bytes[i] : 0);
+    }
+  }
+
+  private static @Nullable String getAscii(ByteBuffer buffer, int offset, int size) {
+    int length = 0;
+    while (length < size && buffer.get(offset + length) != 0) {
+      length++;
+    }
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    return OpenWeatherParser.intern(new String(bytes, StandardCharsets.US_ASCII));
+  }
+}
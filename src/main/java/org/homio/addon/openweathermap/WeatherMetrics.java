@@ -0,0 +1,141 @@
+package org.homio.addon.openweathermap;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lock-free counters and latency histograms of weather pipeline. Hot path only increments adders,
+ * Micrometer meters and entity fields read them on demand.
+ */
+final class WeatherMetrics {
+
+  final Latency geolocation = new Latency();
+  final Latency weather = new Latency();
+  final Latency forecast = new Latency();
+  final Latency group = new Latency();
+  final Latency oneCall = new Latency();
+  // building WeatherInfo and daily forecast from cached snapshots
+  final Latency aggregation = new Latency();
+  final Latency tick = new Latency();
+  final LongAdder variableWrites = new LongAdder();
+  final LongAdder widgetPushes = new LongAdder();
+
+  void bindTo(@NotNull MeterRegistry registry, @NotNull Tags tags) {
+    geolocation.bindTo(registry, "owm.request", tags.and("call", "geolocation"));
+    weather.bindTo(registry, "owm.request", tags.and("call", "weather"));
+    forecast.bindTo(registry, "owm.request", tags.and("call", "forecast"));
+    group.bindTo(registry, "owm.request", tags.and("call", "group"));
+    oneCall.bindTo(registry, "owm.request", tags.and("call", "onecall"));
+    aggregation.bindTo(registry, "owm.aggregation", tags);
+    tick.bindTo(registry, "owm.tick", tags);
+    FunctionCounter.builder("owm.fanout", variableWrites, LongAdder::doubleValue)
+        .tags(tags.and("target", "variable"))
+        .register(registry);
+    FunctionCounter.builder("owm.fanout", widgetPushes, LongAdder::doubleValue)
+        .tags(tags.and("target", "widget"))
+        .register(registry);
+  }
+
+  String getFanOut() {
+    return "%d variable writes, %d widget pushes"
+        .formatted(variableWrites.sum(), widgetPushes.sum());
+  }
+
+  /** Count, total and max of durations plus power of two millisecond buckets for percentiles */
+  static final class Latency {
+
+    // bucket i holds durations below 2^i ms, last one everything above
+    private static final int BUCKETS = 18;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+      count.increment();
+      totalNanos.add(nanos);
+      long max = maxNanos.get();
+      while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+        max = maxNanos.get();
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+      buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    long recordSince(long startNanos) {
+      long nanos = System.nanoTime() - startNanos;
+      record(nanos);
+      return nanos;
+    }
+
+    /** @return upper bound of bucket containing given percentile, in ms */
+    long percentile(double percentile) {
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        total += buckets.get(i);
+      }
+      long rank = (long) Math.ceil(total * percentile);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank && seen > 0) {
+          return 1L << i;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public String toString() {
+      long calls = count.sum();
+      if (calls == 0) {
+        return "-";
+      }
+      return "%d calls, avg %.1f ms, p50 <%d ms, p99 <%d ms, max %d ms"
+          .formatted(
+              calls,
+              totalNanos.sum() / 1_000_000D / calls,
+              percentile(0.5),
+              percentile(0.99),
+              TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+    }
+
+    private void bindTo(MeterRegistry registry, String name, Tags tags) {
+      FunctionTimer.builder(
+              name, this, l -> l.count.sum(), l -> l.totalNanos.sum(), TimeUnit.NANOSECONDS)
+          .tags(tags)
+          .register(registry);
+      Gauge.builder(name + ".max", this, l -> l.maxNanos.get() / 1_000_000D)
+          .tags(tags)
+          .baseUnit("milliseconds")
+          .register(registry);
+      // cumulative as prometheus histogram buckets, so percentiles can be aggregated over time
+      for (int i = 0; i < BUCKETS; i++) {
+        int bucket = i;
+        FunctionCounter.builder(name + ".bucket", this, l -> l.countBelow(bucket))
+            .tags(tags.and("le", i == BUCKETS - 1 ? "+Inf" : Long.toString(1L << i)))
+            .baseUnit("milliseconds")
+            .register(registry);
+      }
+    }
+
+    // @return durations in buckets up to given one, inclusive
+    private double countBelow(int bucket) {
+      long total = 0;
+      for (int i = 0; i <= bucket; i++) {
+        total += buckets.get(i);
+      }
+      return total;
+    }
+  }
+}
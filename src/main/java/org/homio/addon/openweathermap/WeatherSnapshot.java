@@ -0,0 +1,105 @@
+package org.homio.addon.openweathermap;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Latest per-city weather, forecast and OWM city ids persisted on shutdown and periodically, so
+ * after restart cached data is served immediately and refreshed in background. Snapshot is valid
+ * only for the same unit/lang it was fetched with.
+ *
+ * @param savedAt - epoch millis
+ */
+@Log4j2
+record WeatherSnapshot(
+    long savedAt,
+    String unit,
+    String lang,
+    Map<String, CurrentWeather> weather,
+    Map<String, Forecast> forecast,
+    Map<String, Long> cityIds) {
+
+  static @Nullable WeatherSnapshot load(Path file) {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try {
+      return JsonFiles.OBJECT_MAPPER.readValue(file.toFile(), WeatherSnapshot.class);
+    } catch (Exception ex) {
+      log.warn("Unable to read weather snapshot: {}", file, ex);
+      return null;
+    }
+  }
+
+  void save(Path file) {
+    try {
+      JsonFiles.writeJsonAtomically(file, this);
+    } catch (Exception ex) {
+      log.warn("Unable to save weather snapshot: {}", file, ex);
+    }
+  }
+
+  /** Serializable copy of {@link ForecastData} columns and One Call daily summaries */
+  record Forecast(
+      long[] dt,
+      double[] temp,
+      double[] tempMin,
+      double[] tempMax,
+      double[] feelsLike,
+      double[] humidity,
+      double[] pressure,
+      double[] windSpeed,
+      double[] windDegree,
+      String[] icon,
+      String[] condition,
+      String[] description,
+      @Nullable Forecast daily) {
+
+    static Forecast of(ForecastData data) {
+      int size = data.size;
+      return new Forecast(
+          Arrays.copyOf(data.dt, size),
+          Arrays.copyOf(data.temp, size),
+          Arrays.copyOf(data.tempMin, size),
+          Arrays.copyOf(data.tempMax, size),
+          Arrays.copyOf(data.feelsLike, size),
+          Arrays.copyOf(data.humidity, size),
+          Arrays.copyOf(data.pressure, size),
+          Arrays.copyOf(data.windSpeed, size),
+          Arrays.copyOf(data.windDegree, size),
+          Arrays.copyOf(data.icon, size),
+          Arrays.copyOf(data.condition, size),
+          Arrays.copyOf(data.description, size),
+          data.daily == null ? null : of(data.daily));
+    }
+
+    ForecastData toForecastData() {
+      ForecastData data = new ForecastData(dt.length);
+      for (int i = 0; i < dt.length; i++) {
+        int index = data.add();
+        data.dt[index] = dt[i];
+        data.temp[index] = temp[i];
+        data.tempMin[index] = tempMin[i];
+        data.tempMax[index] = tempMax[i];
+        data.feelsLike[index] = feelsLike[i];
+        data.humidity[index] = humidity[i];
+        data.pressure[index] = pressure[i];
+        data.windSpeed[index] = windSpeed[i];
+        data.windDegree[index] = windDegree[i];
+        data.icon[index] = intern(icon[i]);
+        data.condition[index] = intern(condition[i]);
+        data.description[index] = intern(description[i]);
+      }
+      data.daily = daily == null ? null : daily.toForecastData();
+      return data;
+    }
+
+    private static String intern(String value) {
+      return value == null ? null : OpenWeatherParser.intern(value);
+    }
+  }
+}
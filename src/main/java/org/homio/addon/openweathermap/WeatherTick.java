@@ -0,0 +1,165 @@
+package org.homio.addon.openweathermap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.ContextVar.Variable;
+import org.homio.api.service.WeatherEntity.WeatherInfoType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Refresh tick of weather listeners, independent of Homio context: refreshes cities and fans
+ * weather out to variables and widgets of every city as soon as it's own refresh completes. Run
+ * by OpenWeatherService on schedule and directly by load test.
+ */
+@Log4j2
+final class WeatherTick {
+
+  private final OpenWeatherCache weatherCache;
+  private final ChangeDetector changeDetector;
+  private final WidgetProtocol widgetProtocol;
+  // city -> widget group
+  private final Function<String, String> widgetGroup;
+  private volatile Map<WeatherInfoType, Double> deadbands = Map.of();
+
+  WeatherTick(
+      OpenWeatherCache weatherCache,
+      ChangeDetector changeDetector,
+      WidgetProtocol widgetProtocol,
+      Function<String, String> widgetGroup) {
+    this.weatherCache = weatherCache;
+    this.changeDetector = changeDetector;
+    this.widgetProtocol = widgetProtocol;
+    this.widgetGroup = widgetGroup;
+  }
+
+  void setDeadbands(@NotNull Map<WeatherInfoType, Double> deadbands) {
+    this.deadbands = deadbands;
+  }
+
+  /**
+   * Refresh cities which are due by their refresh rate and update their listeners
+   *
+   * @param variablesByCity - city -> type -> variables
+   * @param widgetCities - cities of subscribed widgets, see WidgetProtocol.subscribe
+   */
+  TickResult run(
+      @NotNull Map<String, Map<WeatherInfoType, List<Variable>>> variablesByCity,
+      @NotNull Set<String> widgetCities) {
+    return run(variablesByCity, widgetCities, false);
+  }
+
+  /** Same as run, but every city is refreshed regardless of schedule */
+  TickResult runAll(
+      @NotNull Map<String, Map<WeatherInfoType, List<Variable>>> variablesByCity,
+      @NotNull Set<String> widgetCities) {
+    return run(variablesByCity, widgetCities, true);
+  }
+
+  private TickResult run(
+      Map<String, Map<WeatherInfoType, List<Variable>>> variablesByCity,
+      Set<String> widgetCities,
+      boolean all) {
+    long start = System.nanoTime();
+    Set<String> cities = new HashSet<>(variablesByCity.keySet());
+    cities.addAll(widgetCities);
+
+    Map<String, CompletableFuture<Void>> refreshes =
+        all
+            ? weatherCache.refresh(cities, widgetCities)
+            : weatherCache.refreshDue(cities, widgetCities);
+    AtomicInteger withoutData = new AtomicInteger();
+    List<CompletableFuture<Void>> updates = new ArrayList<>(refreshes.size());
+    refreshes.forEach(
+        (city, refresh) ->
+            updates.add(
+                refresh.thenRun(
+                    () -> {
+                      if (!updateCity(
+                          city,
+                          variablesByCity.getOrDefault(city, Map.of()),
+                          widgetCities.contains(city))) {
+                        withoutData.incrementAndGet();
+                      }
+                    })));
+    CompletableFuture.allOf(updates.toArray(CompletableFuture[]::new)).join();
+    // ticks without due cities are no-ops and would hide real tick duration
+    if (!updates.isEmpty()) {
+      weatherCache.getMetrics().tick.recordSince(start);
+    }
+    weatherCache.cleanUp();
+    return new TickResult(updates.size(), withoutData.get());
+  }
+
+  // @return false if there is no weather of city
+  private boolean updateCity(
+      String city,
+      Map<WeatherInfoType, List<Variable>> variables,
+      boolean widgets) {
+    CurrentWeather weather;
+    try {
+      weather = weatherCache.getCurrentWeather(city);
+    } catch (Exception ex) {
+      // nothing cached and OWM is unavailable or out of quota. Listeners keep last values
+      log.warn("No weather data for city: {}. {}", city, ex.getMessage());
+      return false;
+    }
+    // only listeners which got different data than last written are updated
+    if (widgets) {
+      try {
+        int pushes =
+            widgetProtocol.publish(widgetGroup.apply(city), weatherCache.getWeatherInfo(city));
+        weatherCache.getMetrics().widgetPushes.add(pushes);
+      } catch (Exception ex) {
+        log.warn("Unable to update weather widgets of city: {}", city, ex);
+      }
+    }
+    // values are computed for all variables of city first, then only changed ones are written
+    List<VariableWrite> writes = new ArrayList<>();
+    Map<WeatherInfoType, Double> deadbands = this.deadbands;
+    variables.forEach(
+        (type, typeVariables) -> {
+          double value;
+          try {
+            value = OpenWeatherCache.getValueReader(type).applyAsDouble(weather);
+          } catch (Exception ex) {
+            log.warn("Unable to read weather info {} for city: {}", type, city, ex);
+            return;
+          }
+          double deadband = deadbands.getOrDefault(type, 0D);
+          for (Variable variable : typeVariables) {
+            if (changeDetector.valueChanged(variable.getId(), value, deadband)) {
+              writes.add(new VariableWrite(variable, value));
+            }
+          }
+        });
+    writeVariables(writes);
+    return true;
+  }
+
+  private void writeVariables(List<VariableWrite> writes) {
+    for (VariableWrite write : writes) {
+      try {
+        write.variable.set(write.value);
+        changeDetector.written(write.variable.getId(), write.value);
+        weatherCache.getMetrics().variableWrites.increment();
+      } catch (Exception ex) {
+        log.warn("Unable to update weather variable: {}", write.variable.getId(), ex);
+      }
+    }
+  }
+
+  /**
+   * @param cities - refreshed cities
+   * @param withoutData - cities which had no weather, their listeners were not updated
+   */
+  record TickResult(int cities, int withoutData) {}
+
+  private record VariableWrite(Variable variable, double value) {}
+}
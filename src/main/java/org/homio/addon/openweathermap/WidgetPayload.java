@@ -0,0 +1,40 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import java.io.IOException;
+import lombok.SneakyThrows;
+
+/** Widget message serialized once and written as raw json to every widget store it's pushed to. */
+final class WidgetPayload implements JsonSerializable {
+
+  private final String json;
+
+  private WidgetPayload(String json) {
+    this.json = json;
+  }
+
+  @SneakyThrows
+  static WidgetPayload of(Object message) {
+    return new WidgetPayload(JsonFiles.OBJECT_MAPPER.writeValueAsString(message));
+  }
+
+  @Override
+  public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+    gen.writeRawValue(json);
+  }
+
+  @Override
+  public void serializeWithType(
+      JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+      throws IOException {
+    serialize(gen, serializers);
+  }
+
+  @Override
+  public String toString() {
+    return json;
+  }
+}
@@ -0,0 +1,360 @@
+package org.homio.addon.openweathermap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.service.WeatherEntity.WeatherInfo;
+import org.homio.api.service.WeatherEntity.WeatherInfo.DailyForecast;
+import org.homio.api.service.WeatherEntity.WeatherInfo.HourWeatherInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Versioned messages for weather widget (code.js). Widget gets full compact snapshot once it
+ * subscribes:
+ *
+ * <pre>{"v": 1, "full": true, "current": {...}, "forecast": [...]}</pre>
+ *
+ * and then only fields which differ from previous message. 'forecast' is present only if it
+ * changed. Widget applies delta only if it's version equals 'base'.
+ *
+ * <pre>{"v": 2, "base": 1, "current": {"temperature": 12.5}}</pre>
+ *
+ * Only fields rendered by widget are sent. Versions are kept per group (city/unit/lang), so every
+ * message is serialized once and the same payload is pushed to all widgets of group. Last version
+ * pushed to every widget is tracked, widget which can't apply next delta gets full snapshot.
+ *
+ * <p>Icons are sent as data uris in 'icons' map: full snapshot has all icons it references, delta
+ * only icons which widgets of group don't have yet. Widget never loads images from OWM.
+ */
+@Log4j2
+class WidgetProtocol {
+
+  // widgets which got no full snapshot for this long get one, in case message was lost on the way
+  static final long RESYNC_INTERVAL = TimeUnit.HOURS.toMillis(1);
+  private static final long UNKNOWN_VERSION = -1;
+
+  // widgets showing same city with same unit/lang share group and it's version chain
+  private final Map<String, GroupState> groups = new ConcurrentHashMap<>();
+  // widget id -> group
+  private final Map<String, String> widgetGroups = new ConcurrentHashMap<>();
+  // icon code -> data uri or null if icon is unknown
+  private final Function<String, String> iconResolver;
+  private final LongSupplier clock;
+
+  WidgetProtocol(@NotNull Function<String, String> iconResolver) {
+    this(iconResolver, System::currentTimeMillis);
+  }
+
+  WidgetProtocol(@NotNull Function<String, String> iconResolver, @NotNull LongSupplier clock) {
+    this.iconResolver = iconResolver;
+    this.clock = clock;
+  }
+
+  static @NotNull Map<String, Object> toCurrent(@NotNull WeatherInfo info) {
+    Map<String, Object> current = new LinkedHashMap<>();
+    current.put("city", info.getCity());
+    current.put("condition", info.getCondition());
+    current.put("icon", info.getIcon());
+    current.put("temperature", info.getTemperature());
+    current.put("pressure", info.getPressure());
+    current.put("humidity", info.getHumidity());
+    current.put("windSpeed", info.getWindSpeed());
+    current.put("visibility", info.getVisibility());
+    current.put("sunrise", info.getSunrise());
+    current.put("sunset", info.getSunset());
+    return current;
+  }
+
+  static @NotNull List<Map<String, Object>> toForecast(@NotNull WeatherInfo info) {
+    if (info.getForecast() == null) {
+      return List.of();
+    }
+    List<Map<String, Object>> forecast = new ArrayList<>(info.getForecast().size());
+    for (DailyForecast day : info.getForecast()) {
+      List<Map<String, Object>> hours = new ArrayList<>(day.getHours().size());
+      for (HourWeatherInfo hour : day.getHours().values()) {
+        hours.add(
+            Map.of(
+                "dt", hour.getDt(), "icon", hour.getIcon(), "temperature", hour.getTemperature()));
+      }
+      Map<String, Object> item = new LinkedHashMap<>();
+      item.put("name", day.getName());
+      item.put("icon", day.getIcon());
+      item.put("minTemp", day.getMinTemp());
+      item.put("maxTemp", day.getMaxTemp());
+      item.put("hours", hours);
+      forecast.add(item);
+    }
+    return forecast;
+  }
+
+  /**
+   * Register widget store in group and send it full snapshot. Snapshot and later publishes of
+   * group are pushed under group lock, so store gets every version after snapshot and in order, no
+   * matter which thread subscribes. Snapshot is shared by all widgets of group until group version
+   * changes, so subscribing is O(1) once group is built.
+   *
+   * @param widgetId - subscribing again replaces store, also in other group
+   * @param info - initial data of new group. Existing group is served at it's current version,
+   *     newer info reaches the subscriber with next publish like every other widget of group
+   * @return false if store failed to accept snapshot
+   */
+  boolean subscribe(
+      @NotNull String group,
+      @NotNull String widgetId,
+      @NotNull Consumer<WidgetPayload> store,
+      @NotNull WeatherInfo info) {
+    String previousGroup = widgetGroups.put(widgetId, group);
+    if (previousGroup != null && !previousGroup.equals(group)) {
+      removeMember(previousGroup, widgetId, null);
+    }
+    while (true) {
+      GroupState state = groups.computeIfAbsent(group, id -> new GroupState());
+      synchronized (state) {
+        // group was dropped by last unsubscribe meanwhile
+        if (state.removed) {
+          continue;
+        }
+        // only publish() advances existing group, it's result is pushed to all widgets of group
+        boolean created = state.info == null;
+        if (created) {
+          advance(state, info);
+        }
+        WidgetPayload full = getFull(state);
+        if (created) {
+          // first delta sends only icons which are not in this snapshot
+          state.deliveredIcons = resolveIcons(getIcons(state), new LinkedHashMap<>(), Set.of());
+        }
+        Member member = new Member(store);
+        state.members.put(widgetId, member);
+        return push(member, full, state.version, true);
+      }
+    }
+  }
+
+  /** @param store - widget is removed only if it's still subscribed with this store */
+  void unsubscribe(@NotNull String widgetId, @NotNull Consumer<WidgetPayload> store) {
+    String group = widgetGroups.get(widgetId);
+    if (group != null && removeMember(group, widgetId, store)) {
+      widgetGroups.remove(widgetId, group);
+    }
+  }
+
+  /**
+   * Push changes since last version to widgets of group. Widgets which didn't get previous
+   * version (failed push) or got no full snapshot for {@link #RESYNC_INTERVAL} get full snapshot
+   * instead, so widget which lost a message doesn't stay frozen until reload.
+   *
+   * @return number of widgets payload was pushed to
+   */
+  int publish(@NotNull String group, @NotNull WeatherInfo info) {
+    GroupState state = groups.get(group);
+    if (state == null) {
+      return 0;
+    }
+    synchronized (state) {
+      if (state.members.isEmpty()) {
+        return 0;
+      }
+      WidgetPayload delta = state.info == info ? null : delta(state, info);
+      long now = clock.getAsLong();
+      int pushes = 0;
+      for (Member member : state.members.values()) {
+        if (member.version == state.version && now - member.fullAt < RESYNC_INTERVAL) {
+          continue;
+        }
+        boolean full =
+            delta == null
+                || member.version != state.version - 1
+                || now - member.fullAt >= RESYNC_INTERVAL;
+        if (push(member, full ? getFull(state) : delta, state.version, full)) {
+          pushes++;
+        }
+      }
+      return pushes;
+    }
+  }
+
+  // @return changes since previous version or null if compact data didn't change
+  private @Nullable WidgetPayload delta(GroupState state, WeatherInfo info) {
+    Map<String, Object> previous = state.current;
+    List<Map<String, Object>> previousForecast = state.forecast;
+    if (!advance(state, info)) {
+      return null;
+    }
+    Map<String, Object> changed = new LinkedHashMap<>();
+    for (Map.Entry<String, Object> entry : state.current.entrySet()) {
+      if (!Objects.equals(entry.getValue(), previous.get(entry.getKey()))) {
+        changed.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("v", state.version);
+    message.put("base", state.version - 1);
+    if (!changed.isEmpty()) {
+      message.put("current", changed);
+    }
+    if (state.forecast != previousForecast) {
+      message.put("forecast", state.forecast);
+    }
+    Map<String, String> icons = new LinkedHashMap<>();
+    state.deliveredIcons = resolveIcons(getIcons(state), icons, state.deliveredIcons);
+    if (!icons.isEmpty()) {
+      message.put("icons", icons);
+    }
+    return WidgetPayload.of(message);
+  }
+
+  private WidgetPayload getFull(GroupState state) {
+    if (state.fullPayload != null) {
+      return state.fullPayload;
+    }
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("v", state.version);
+    message.put("full", true);
+    message.put("current", state.current);
+    message.put("forecast", state.forecast);
+    Set<String> referenced = getIcons(state);
+    Map<String, String> icons = new LinkedHashMap<>();
+    resolveIcons(referenced, icons, Set.of());
+    message.put("icons", icons);
+    WidgetPayload payload = WidgetPayload.of(message);
+    // rebuilt for next subscriber while some icon is unknown, i.e. new OWM icon code
+    if (icons.size() == referenced.size()) {
+      state.fullPayload = payload;
+    }
+    return payload;
+  }
+
+  // failed store is resynced with full snapshot by next publish
+  private boolean push(Member member, WidgetPayload payload, long version, boolean full) {
+    try {
+      member.store.accept(payload);
+      member.version = version;
+      if (full) {
+        member.fullAt = clock.getAsLong();
+      }
+      return true;
+    } catch (Exception ex) {
+      member.version = UNKNOWN_VERSION;
+      log.warn("Unable to push weather widget data", ex);
+      return false;
+    }
+  }
+
+  // @param store - null removes any store of widget
+  private boolean removeMember(
+      String group, String widgetId, @Nullable Consumer<WidgetPayload> store) {
+    GroupState state = groups.get(group);
+    if (state == null) {
+      return true;
+    }
+    synchronized (state) {
+      Member member = state.members.get(widgetId);
+      if (member != null && store != null && member.store != store) {
+        return false;
+      }
+      state.members.remove(widgetId);
+      if (state.members.isEmpty()) {
+        state.removed = true;
+        groups.remove(group, state);
+      }
+      return true;
+    }
+  }
+
+  private static Set<String> getIcons(GroupState state) {
+    Set<String> icons = new LinkedHashSet<>();
+    icons.add((String) state.current.get("icon"));
+    for (Map<String, Object> day : state.forecast) {
+      icons.add((String) day.get("icon"));
+      for (Object hour : (List<?>) day.get("hours")) {
+        icons.add((String) ((Map<?, ?>) hour).get("icon"));
+      }
+    }
+    icons.remove(null);
+    return icons;
+  }
+
+  /**
+   * Put data uris of icons to target.
+   *
+   * @param known - icons widgets already have, skipped
+   * @return icons widgets have after receiving target, i.e. known ones plus resolved ones
+   */
+  private Set<String> resolveIcons(
+      Set<String> icons, Map<String, String> target, Set<String> known) {
+    Set<String> delivered = new HashSet<>();
+    for (String icon : icons) {
+      if (known.contains(icon)) {
+        delivered.add(icon);
+        continue;
+      }
+      String dataUri = iconResolver.apply(icon);
+      if (dataUri != null) {
+        target.put(icon, dataUri);
+        delivered.add(icon);
+      }
+    }
+    return delivered;
+  }
+
+  // @return true if compact data changed and version advanced
+  private static boolean advance(GroupState state, WeatherInfo info) {
+    state.info = info;
+    Map<String, Object> current = toCurrent(info);
+    // forecast is rebuilt with every WeatherInfo, compare content to detect real refresh
+    List<Map<String, Object>> forecast = toForecast(info);
+    boolean forecastChanged = !forecast.equals(state.forecast);
+    if (current.equals(state.current) && !forecastChanged) {
+      return false;
+    }
+    state.current = current;
+    if (forecastChanged) {
+      state.forecast = forecast;
+    }
+    state.version++;
+    state.fullPayload = null;
+    return true;
+  }
+
+  private static class GroupState {
+
+    // widget id -> subscribed widget
+    private final Map<String, Member> members = new LinkedHashMap<>();
+    private boolean removed;
+    private long version;
+    private WeatherInfo info;
+    private Map<String, Object> current;
+    private List<Map<String, Object>> forecast;
+    // built on first subscription after version change
+    private WidgetPayload fullPayload;
+    // icons which widgets following deltas have for current version, next delta sends the rest
+    private Set<String> deliveredIcons = Set.of();
+  }
+
+  private static class Member {
+
+    private final Consumer<WidgetPayload> store;
+    // last version pushed to store
+    private long version = UNKNOWN_VERSION;
+    private long fullAt;
+
+    private Member(Consumer<WidgetPayload> store) {
+      this.store = store;
+    }
+  }
+}
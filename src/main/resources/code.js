@@ -1,127 +1,208 @@
+const formatTime = (timestamp) => {
+    const date = new Date(timestamp * 1000);
+    return date.toLocaleTimeString([], { hour: '2-digit', minute: '2-digit', hour12: false });
+};
+const formatDate = (timestamp) => {
+    const date = new Date(timestamp * 1000);
+    return date.toLocaleTimeString([], { hour: '2-digit', hour12: false });
+};
+// icons come as data uris within messages, transparent pixel for unknown icon codes
+const BLANK_ICON = 'data:image/gif;base64,R0lGODlhAQABAAAAACH5BAEKAAEALAAAAAABAAEAAAICTAEAOw==';
+
+// text of nodes with data-field attribute
+const FIELDS = {
+    city: w => w.city,
+    condition: w => w.condition,
+    temperature: w => Math.round(w.temperature),
+    pressure: w => w.pressure,
+    humidity: w => w.humidity,
+    windSpeed: w => w.windSpeed,
+    visibility: w => w.visibility / 1000,
+    sunrise: w => formatTime(w.sunrise),
+    sunset: w => formatTime(w.sunset)
+};
+
 class OpenWeatherWidget extends HTMLElement {
 
     setContext(widget) {
-        widget.dataWarehouse.subscribe(data => {
-            if(data) {
-                this.weather = data;
-                this.render();
+        widget.dataWarehouse.subscribe(message => {
+            if(message) {
+                this.apply(message);
             }
         });
     }
 
-    render() {
-        const formatTime = (timestamp) => {
-            const date = new Date(timestamp * 1000);
-            return date.toLocaleTimeString([], { hour: '2-digit', minute: '2-digit', hour12: false });
-        };
-        const formatDate = (timestamp) => {
-            const date = new Date(timestamp * 1000);
-            return date.toLocaleTimeString([], { hour: '2-digit', hour12: false });
-        };
+    iconUrl(icon) {
+        return (this.icons && this.icons[icon]) || BLANK_ICON;
+    }
 
+    // full snapshot: {v, full, current, forecast, icons}, delta: {v, base, current?, forecast?, icons?}
+    apply(message) {
+        if(message.full) {
+            this.icons = {...this.icons, ...message.icons};
+            this.weather = {...message.current, forecast: message.forecast};
+            this.version = message.v;
+            this.render();
+            return;
+        }
+        if(this.weather == null || message.base !== this.version) {
+            // out of sync, server resends full snapshot at latest with hourly resync
+            return;
+        }
+        this.version = message.v;
+        if(message.icons) {
+            this.icons = {...this.icons, ...message.icons};
+        }
+        if(message.current) {
+            Object.assign(this.weather, message.current);
+        }
+        if(message.forecast) {
+            this.weather.forecast = message.forecast;
+        }
         if(this.selectedDayIdx != null) {
-            const day = this.weather.forecast[this.selectedDayIdx];
-            const hoursArray = Object.values(day.hours).sort((a, b) => a.dt - b.dt);
-            this.content.innerHTML = `                    
-                <div class="weather-widget forecast hours">
-                <button class="back-btn">← Back(${day.name})</button> 
-                ${hoursArray.map(hour => ` 
-                    <div class="day">
-                    <div class="name">${formatDate(hour.dt / 1000)}</div>
-                    <img class="icon" src="https://openweathermap.org/img/wn/${hour.icon}.png" />
-                    <div class="min">${Math.round(hour.temperature)}°<b>C</b></div>
-                    </div>
-                `).join('')}
-                </div>
-            `;
-            setTimeout(()=> {
-                this.content.querySelector('.back-btn').addEventListener('click', () => {
-                    this.selectedDayIdx = null;
-                    this.render();
-                });
-            }, 100);
+            if(message.forecast) {
+                this.renderHours();
+            }
             return;
         }
+        if(message.current) {
+            this.updateCurrent(Object.keys(message.current));
+        }
+        if(message.forecast) {
+            this.content.querySelector('.forecast').innerHTML = this.forecastHtml();
+            this.bindForecast();
+        }
+    }
+
+    updateCurrent(fields) {
+        for(const field of fields) {
+            if(field === 'icon') {
+                this.content.querySelectorAll('img[data-field="icon"]')
+                    .forEach(img => img.src = this.iconUrl(this.weather.icon));
+            } else if(FIELDS[field]) {
+                const text = FIELDS[field](this.weather);
+                this.content.querySelectorAll(`[data-field="${field}"]`)
+                    .forEach(node => node.textContent = text);
+            }
+        }
+    }
+
+    render() {
+        if(this.selectedDayIdx != null) {
+            this.renderHours();
+            return;
+        }
+        const f = field => `<span data-field="${field}">${FIELDS[field](this.weather)}</span>`;
 
         this.content.innerHTML = `
             <div class="weather-widget">
-              <h2 class="city-name">${this.weather.city} - ${this.weather.condition}</h2>
+              <h2 class="city-name">${f('city')} - ${f('condition')}</h2>
               <div class="current-weather">
                 <div class="temperature">
                   <div class="main">
-                    <img class="icon" src="https://openweathermap.org/img/wn/${this.weather.icon}.png" />
-                    ${Math.round(this.weather.temperature)}°C
+                    <img class="icon" data-field="icon" src="${this.iconUrl(this.weather.icon)}" />
+                    ${f('temperature')}°C
                   </div>
                   <div class="details">
                     <div class="block">
                     <div class="info">
                       <i class="fas fa-tachometer-alt"></i>
-                      <div class="value">${this.weather.pressure} hPa</div>
+                      <div class="value">${f('pressure')} hPa</div>
                     </div>
                     <div class="info">
                       <i class="fas fa-tint"></i>
-                      <div class="value">${this.weather.humidity}%</div>
+                      <div class="value">${f('humidity')}%</div>
                     </div>
                     </div>
                     <div class="block">
                     <div class="info">
                       <i class="fas fa-wind"></i>
-                      <div class="value">${this.weather.windSpeed} m/s</div>
+                      <div class="value">${f('windSpeed')} m/s</div>
                     </div>
                     <div class="info">
                       <i class="fas fa-eye"></i>
-                      <div class="value">${this.weather.visibility / 1000} km</div>
+                      <div class="value">${f('visibility')} km</div>
                     </div>
                     </div>
                     <div class="block">
                     <div class="info">
                       <i class="fas fa-sun"></i>
-                      <div class="value">${formatTime(this.weather.sunrise)}</div>
+                      <div class="value">${f('sunrise')}</div>
                     </div>
                     <div class="info">
                       <i class="fas fa-moon"></i>
-                      <div class="value">${formatTime(this.weather.sunset)}</div>
+                      <div class="value">${f('sunset')}</div>
                     </div>
                     </div>
                   </div>
                 </div>
               </div>
-              <div class="forecast clickable">
-                ${this.weather.forecast.map(day => `
-                  <div class="day">
-                    <div class="name">${day.name}</div>
-                    <img class="icon" src="https://openweathermap.org/img/wn/${day.icon}.png" />
-                    <div class="max">${Math.round(day.maxTemp)}<b>°C</b></div>
-                    <div class="min">${Math.round(day.minTemp)}<b>°C</b></div>
-                  </div>
-                `).join('')}
-              </div>
-              <div class="footer"> 
+              <div class="forecast clickable">${this.forecastHtml()}</div>
+              <div class="footer">
                 <div>
                   <i class="fas fa-fw fa-temperature-high"></i>
-                  <span>${Math.round(this.weather.temperature)}<b>°C</b></span>
-                </div>                          
+                  <span>${f('temperature')}<b>°C</b></span>
+                </div>
                 <div>
                   <i class="fas fa-fw fa-tint"></i>
-                  <span>${this.weather.humidity}<b>%</b></span>
-                </div>                                                
+                  <span>${f('humidity')}<b>%</b></span>
+                </div>
                   <div>
                     <i class="fas fa-fw fa-wind"></i>
-                    <span>${this.weather.windSpeed}<b>m/s</b></span>
+                    <span>${f('windSpeed')}<b>m/s</b></span>
                   </div>
               </div>
             </div>
         `;
+        setTimeout(() => this.bindForecast(), 100);
+    }
+
+    forecastHtml() {
+        return this.weather.forecast.map(day => `
+            <div class="day">
+              <div class="name">${day.name}</div>
+              <img class="icon" src="${this.iconUrl(day.icon)}" />
+              <div class="max">${Math.round(day.maxTemp)}<b>°C</b></div>
+              <div class="min">${Math.round(day.minTemp)}<b>°C</b></div>
+            </div>
+        `).join('');
+    }
 
+    bindForecast() {
+        this.content.querySelectorAll('.forecast .day').forEach((dayElem, idx) => {
+            dayElem.addEventListener('click', () => {
+                this.selectedDayIdx = idx;
+                this.render();
+            });
+        });
+    }
+
+    renderHours() {
+        const day = this.weather.forecast[this.selectedDayIdx];
+        if(!day) {
+            this.selectedDayIdx = null;
+            this.render();
+            return;
+        }
+        this.content.innerHTML = `
+            <div class="weather-widget forecast hours">
+            <button class="back-btn">← Back(${day.name})</button>
+            ${day.hours.map(hour => `
+                <div class="day">
+                <div class="name">${formatDate(hour.dt / 1000)}</div>
+                <img class="icon" src="${this.iconUrl(hour.icon)}" />
+                <div class="min">${Math.round(hour.temperature)}°<b>C</b></div>
+                </div>
+            `).join('')}
+            </div>
+        `;
         setTimeout(()=> {
-            this.content.querySelectorAll('.forecast .day').forEach((dayElem, idx) => {
-                dayElem.addEventListener('click', () => {
-                    this.selectedDayIdx = idx;
-                    this.render();
-                });
+            this.content.querySelector('.back-btn').addEventListener('click', () => {
+                this.selectedDayIdx = null;
+                this.render();
             });
-        }, 100)
+        }, 100);
     }
 }
 
-customElements.define("openweather-widget", OpenWeatherWidget);
\ No newline at end of file
+customElements.define("openweather-widget", OpenWeatherWidget);
@@ -0,0 +1,32 @@
+package org.homio.addon.openweathermap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/** Recorded OWM responses from src/test/resources/fixtures. */
+final class Fixtures {
+
+  static final byte[] WEATHER = read("weather.json");
+  static final byte[] FORECAST = read("forecast.json");
+  static final byte[] GROUP = read("group.json");
+  static final byte[] ONE_CALL = read("onecall.json");
+
+  private Fixtures() {}
+
+  static InputStream stream(byte[] fixture) {
+    return new ByteArrayInputStream(fixture);
+  }
+
+  static byte[] read(String name) {
+    try (InputStream stream = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+      if (stream == null) {
+        throw new IllegalStateException("Fixture not found: " + name);
+      }
+      return stream.readAllBytes();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.homio.addon.openweathermap.OpenWeatherParser.OneCall;
+import org.homio.api.service.WeatherEntity.WeatherInfo;
+import org.homio.api.service.WeatherEntity.WeatherInfo.DailyForecast;
+import org.homio.api.service.WeatherEntity.WeatherInfo.HourWeatherInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ForecastAggregatorTest {
+
+  private static final ZoneId ZONE = ZoneOffset.UTC;
+
+  @Test
+  void oneCallDaysComeFromDailySummaries() throws IOException {
+    OneCall oneCall = OpenWeatherParser.parseOneCall(Fixtures.stream(Fixtures.ONE_CALL), "London");
+    ForecastData hourly = oneCall.forecast();
+    ForecastData daily = hourly.daily;
+    WeatherInfo current = OpenWeatherCache.toWeatherInfo(oneCall.current(), null);
+
+    List<DailyForecast> days = ForecastAggregator.aggregate(hourly, current, ZONE);
+
+    assertEquals(daily.size, days.size());
+    Map<Long, Integer> hoursPerDay = countHoursPerDay(hourly);
+    int hours = 0;
+    for (int i = 0; i < days.size(); i++) {
+      DailyForecast day = days.get(i);
+      long epochDay = Math.floorDiv(daily.dt[i], 86400);
+      assertEquals(daily.dt[i] * 1000, day.getDt());
+      assertEquals(hoursPerDay.getOrDefault(epochDay, 0), day.getHours().size(), "day " + i);
+      for (long dt : day.getHours().keySet()) {
+        assertEquals(epochDay, Math.floorDiv(dt, 86400_000L));
+      }
+      hours += day.getHours().size();
+      if (i > 0) {
+        assertEquals(daily.tempMin[i], day.getMinTemp());
+        assertEquals(daily.tempMax[i], day.getMaxTemp());
+        assertEquals(daily.icon[i], day.getIcon());
+      }
+    }
+    assertEquals(hourly.size, hours);
+    // fixture starts at noon UTC, 48 hours span three days
+    assertEquals(12, days.get(0).getHours().size());
+    assertEquals(24, days.get(1).getHours().size());
+    assertEquals(12, days.get(2).getHours().size());
+
+    DailyForecast today = days.get(0);
+    assertEquals(current.getIcon(), today.getIcon());
+    assertEquals(current.getCondition(), today.getCondition());
+    assertEquals(daily.tempMin[0], today.getMinTemp());
+    assertEquals(daily.tempMax[0], today.getMaxTemp());
+  }
+
+  @Test
+  void threeHourForecastIsGroupedByDay() throws IOException {
+    ForecastData data = OpenWeatherParser.parseForecast(Fixtures.stream(Fixtures.FORECAST));
+    WeatherInfo current =
+        OpenWeatherCache.toWeatherInfo(
+            OpenWeatherParser.parseCurrentWeather(Fixtures.stream(Fixtures.WEATHER)), null);
+
+    List<DailyForecast> days = ForecastAggregator.aggregate(data, current, ZONE);
+
+    Map<Long, Integer> hoursPerDay = countHoursPerDay(data);
+    assertEquals(hoursPerDay.size(), days.size());
+    List<Long> epochDays = new ArrayList<>(hoursPerDay.keySet());
+    long today = Math.floorDiv(current.getDt(), 86400_000L);
+    for (int i = 0; i < days.size(); i++) {
+      DailyForecast day = days.get(i);
+      long epochDay = epochDays.get(i);
+      assertEquals(hoursPerDay.get(epochDay), day.getHours().size(), "day " + i);
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
+      for (int j = 0; j < data.size; j++) {
+        if (Math.floorDiv(data.dt[j], 86400) == epochDay) {
+          min = Math.min(min, data.tempMin[j]);
+          max = Math.max(max, data.tempMax[j]);
+        }
+      }
+      if (epochDay == today) {
+        min = Math.min(min, current.getMinTemperature());
+        max = Math.max(max, current.getMaxTemperature());
+        assertEquals(current.getIcon(), day.getIcon());
+      }
+      assertEquals(min, day.getMinTemp(), "day " + i);
+      assertEquals(max, day.getMaxTemp(), "day " + i);
+      assertTrue(day.getIcon() != null && day.getCondition() != null);
+    }
+  }
+
+  // non-whole hour offsets move entries between days and off the 3 hour weight slots
+  @ParameterizedTest
+  @ValueSource(
+      strings = {"UTC", "Europe/London", "America/New_York", "Asia/Kolkata", "Pacific/Chatham"})
+  void matchesLegacyAggregation(String zoneId) throws IOException {
+    ZoneId zone = ZoneId.of(zoneId);
+    JsonNode list = new ObjectMapper().readTree(Fixtures.FORECAST).get("list");
+    ForecastData data = OpenWeatherParser.parseForecast(Fixtures.stream(Fixtures.FORECAST));
+    WeatherInfo current =
+        OpenWeatherCache.toWeatherInfo(
+            OpenWeatherParser.parseCurrentWeather(Fixtures.stream(Fixtures.WEATHER)), null);
+
+    List<DailyForecast> expected = LegacyForecastAggregator.processForecast(list, current, zone);
+    List<DailyForecast> actual = ForecastAggregator.aggregate(data, current, zone);
+
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      DailyForecast e = expected.get(i);
+      DailyForecast a = actual.get(i);
+      String day = "day " + i;
+      assertEquals(e.getDt(), a.getDt(), day);
+      assertEquals(e.getName(), a.getName(), day);
+      assertEquals(e.getIcon(), a.getIcon(), day);
+      assertEquals(e.getCondition(), a.getCondition(), day);
+      assertEquals(e.getMinTemp(), a.getMinTemp(), day);
+      assertEquals(e.getMaxTemp(), a.getMaxTemp(), day);
+      assertEquals(List.copyOf(e.getHours().keySet()), List.copyOf(a.getHours().keySet()), day);
+      for (Long dt : e.getHours().keySet()) {
+        HourWeatherInfo eh = e.getHours().get(dt);
+        HourWeatherInfo ah = a.getHours().get(dt);
+        String hour = day + " at " + dt;
+        assertEquals(eh.getDt(), ah.getDt(), hour);
+        assertEquals(eh.getMinTemp(), ah.getMinTemp(), hour);
+        assertEquals(eh.getMaxTemp(), ah.getMaxTemp(), hour);
+        assertEquals(eh.getTemperature(), ah.getTemperature(), hour);
+        assertEquals(eh.getFeelsLike(), ah.getFeelsLike(), hour);
+        assertEquals(eh.getHumidity(), ah.getHumidity(), hour);
+        assertEquals(eh.getPressure(), ah.getPressure(), hour);
+        assertEquals(eh.getWindSpeed(), ah.getWindSpeed(), hour);
+        assertEquals(eh.getWindDegree(), ah.getWindDegree(), hour);
+        assertEquals(eh.getIcon(), ah.getIcon(), hour);
+        assertEquals(eh.getCondition(), ah.getCondition(), hour);
+      }
+    }
+  }
+
+  // epoch day (UTC) -> number of entries, in order
+  private static Map<Long, Integer> countHoursPerDay(ForecastData data) {
+    Map<Long, Integer> result = new LinkedHashMap<>();
+    for (int i = 0; i < data.size; i++) {
+      result.merge(Math.floorDiv(data.dt[i], 86400), 1, Integer::sum);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,78 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.homio.addon.openweathermap.GeolocationCache.GeoPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GeolocationCacheTest {
+
+  @TempDir Path storagePath;
+
+  @Test
+  void concurrentLookupsOfNewCityShareSingleResolve() throws Exception {
+    GeolocationCache cache =
+        new GeolocationCache(storagePath.resolve("geolocation.json"), Runnable::run);
+    AtomicInteger resolves = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    List<CompletableFuture<GeoPoint>> lookups = new ArrayList<>();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < 20; i++) {
+        // spelled differently, normalized to the same city
+        String name = i % 2 == 0 ? "London" : " london ";
+        lookups.add(
+            CompletableFuture.supplyAsync(
+                () ->
+                    cache.get(
+                        name,
+                        city -> {
+                          resolves.incrementAndGet();
+                          await(release);
+                          return new GeoPoint(51.5, -0.12);
+                        }),
+                executor));
+      }
+      Thread.sleep(100);
+      release.countDown();
+      for (CompletableFuture<GeoPoint> lookup : lookups) {
+        assertEquals(new GeoPoint(51.5, -0.12), lookup.get());
+      }
+    }
+    assertEquals(1, resolves.get());
+  }
+
+  @Test
+  void failedResolveIsRetried() {
+    GeolocationCache cache =
+        new GeolocationCache(storagePath.resolve("geolocation.json"), Runnable::run);
+
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            cache.get(
+                "London",
+                city -> {
+                  throw new IllegalStateException("offline");
+                }));
+    GeoPoint point = new GeoPoint(51.5, -0.12);
+    assertEquals(point, cache.get("London", city -> point));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
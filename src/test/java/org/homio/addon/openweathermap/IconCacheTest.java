@@ -0,0 +1,65 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IconCacheTest {
+
+  private static final String PNG_PREFIX = "data:image/png;base64,";
+  private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G'};
+
+  @TempDir Path directory;
+
+  @Test
+  void bundledIconsServedWithoutRefresh() {
+    List<Runnable> downloads = new ArrayList<>();
+    IconCache cache = new IconCache(directory, new OpenWeatherClient(), downloads::add, () -> false);
+    cache.prefetch();
+
+    for (String code : new String[] {"01", "02", "03", "04", "09", "10", "11", "13", "50"}) {
+      for (String icon : new String[] {code + "d", code + "n"}) {
+        String dataUri = cache.get(icon);
+        assertTrue(dataUri != null && dataUri.startsWith(PNG_PREFIX), icon);
+        byte[] png = Base64.getDecoder().decode(dataUri.substring(PNG_PREFIX.length()));
+        assertArrayEquals(PNG_SIGNATURE, Arrays.copyOf(png, 4), icon);
+      }
+    }
+    assertTrue(downloads.isEmpty());
+    assertTrue(Files.notExists(directory.resolve("01d.png")));
+  }
+
+  @Test
+  void unknownIconIsNull() {
+    IconCache cache = new IconCache(directory, new OpenWeatherClient(), Runnable::run, () -> false);
+
+    assertNull(cache.get(null));
+    assertNull(cache.get("../01d"));
+    assertNull(cache.get("99d"));
+  }
+
+  @Test
+  void downloadedIconReplacesBundled() throws Exception {
+    List<Runnable> downloads = new ArrayList<>();
+    IconCache cache = new IconCache(directory, new OpenWeatherClient(), downloads::add, () -> true);
+    byte[] downloaded = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3};
+    Files.write(directory.resolve("01d.png"), downloaded);
+
+    cache.prefetch();
+
+    assertTrue(cache.get("01d").endsWith(Base64.getEncoder().encodeToString(downloaded)));
+    // missing on disk: download scheduled, bundled icon served meanwhile
+    assertTrue(cache.get("02d").startsWith(PNG_PREFIX));
+    assertEquals(17, downloads.size());
+  }
+}
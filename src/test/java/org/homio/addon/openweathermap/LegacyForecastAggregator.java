@@ -0,0 +1,189 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.homio.api.service.WeatherEntity.WeatherInfo;
+
+/**
+ * Forecast aggregation as it was before {@link ForecastAggregator}: processForecast and
+ * DailyForecastData from OpenWeatherService, working on the raw forecast 'list'. Kept as reference
+ * for equivalence test and as JMH baseline. Zone is a parameter instead of system default.
+ */
+final class LegacyForecastAggregator {
+
+  private static final Map<Integer, Double> HOUR_WEIGHTS =
+      Map.of(
+          0,
+          0.5,
+          3,
+          0.5,
+          6,
+          0.75, // Night and morning
+          9,
+          1.0,
+          12,
+          1.0,
+          15,
+          1.0, // Day
+          18,
+          0.75,
+          21,
+          0.5 // Evening
+          );
+
+  private static final List<String> WEATHER_PRIORITY =
+      List.of(
+          "11", // Thunderstorm
+          "09",
+          "10", // Rain
+          "13", // Snow
+          "50", // Mist/Fog
+          "04",
+          "03",
+          "02", // Clouds
+          "01" // Clear
+          );
+
+  private LegacyForecastAggregator() {}
+
+  static List<WeatherInfo.DailyForecast> processForecast(
+      JsonNode forecast, WeatherInfo info, ZoneId zone) {
+    Map<String, DailyForecastData> dailyData = new HashMap<>();
+    DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(zone);
+
+    for (JsonNode entry : forecast) {
+      long dt = entry.get("dt").asLong() * 1000;
+      String date = dateFormatter.format(Instant.ofEpochMilli(dt));
+      int hour = Instant.ofEpochMilli(dt).atZone(zone).getHour();
+
+      dailyData.computeIfAbsent(date, k -> new DailyForecastData(dt, zone));
+
+      ArrayNode weather = entry.withArray("weather");
+      Optional<JsonNode> weatherNode =
+          Optional.ofNullable(weather).filter(w -> !w.isEmpty()).map(w -> w.get(0));
+      String icon = weatherNode.map(w -> w.get("icon").asText()).orElse("01d");
+      String condition = weatherNode.map(w -> w.get("main").asText()).orElse("Unknown");
+
+      double weight = HOUR_WEIGHTS.getOrDefault(hour, 0.5);
+      dailyData.get(date).addWeightedData(icon, condition, weight);
+      dailyData.get(date).addHours(entry);
+    }
+
+    var dailyForecasts =
+        dailyData.values().stream()
+            .sorted(Comparator.comparing(DailyForecastData::getDt))
+            .map(DailyForecastData::toDailyForecast)
+            .collect(Collectors.toList());
+    // override current date
+    overrideDataForCurrentDayFromMainInfo(info, dailyForecasts, zone);
+
+    return dailyForecasts;
+  }
+
+  private static void overrideDataForCurrentDayFromMainInfo(
+      WeatherInfo info, List<WeatherInfo.DailyForecast> dailyForecasts, ZoneId zone) {
+    var curDate = Instant.ofEpochMilli(info.getDt()).atZone(zone).toLocalDate();
+    for (WeatherInfo.DailyForecast dailyForecast : dailyForecasts) {
+      var dayDate = Instant.ofEpochMilli(dailyForecast.getDt()).atZone(zone).toLocalDate();
+
+      if (dayDate.isEqual(curDate)) {
+        if (info.getMaxTemperature() > dailyForecast.getMaxTemp()) {
+          dailyForecast.setMaxTemp(info.getMaxTemperature());
+        }
+        if (info.getMinTemperature() < dailyForecast.getMinTemp()) {
+          dailyForecast.setMinTemp(info.getMinTemperature());
+        }
+        dailyForecast.setCondition(info.getCondition());
+        dailyForecast.setIcon(info.getIcon());
+      }
+    }
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  private static class DailyForecastData {
+    private final long dt;
+    private final ZoneId zone;
+    private final Map<String, Double> weightedWeatherConditions = new HashMap<>();
+    private final Map<String, Double> weightedIconCounts = new HashMap<>();
+    private final List<JsonNode> hours = new ArrayList<>();
+
+    public void addWeightedData(String icon, String condition, double weight) {
+      weightedWeatherConditions.merge(condition, weight, Double::sum);
+      weightedIconCounts.merge(icon, weight, Double::sum);
+    }
+
+    public String getMostFrequentWeatherCondition() {
+      return weightedWeatherConditions.entrySet().stream()
+          .max(Map.Entry.comparingByValue())
+          .map(Map.Entry::getKey)
+          .orElse("Unknown");
+    }
+
+    private String determinePrioritizedIcon() {
+      return WEATHER_PRIORITY.stream()
+          .flatMap(
+              priority ->
+                  weightedIconCounts.entrySet().stream()
+                      .filter(e -> e.getKey().startsWith(priority))
+                      .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                      .map(Map.Entry::getKey))
+          .findFirst()
+          .orElse("01d");
+    }
+
+    public WeatherInfo.DailyForecast toDailyForecast() {
+      String dayOfWeek =
+          DateTimeFormatter.ofPattern("EEE").format(Instant.ofEpochMilli(dt).atZone(zone));
+      var hours = new LinkedHashMap<Long, WeatherInfo.HourWeatherInfo>();
+      double minTemp = Double.MAX_VALUE;
+      double maxTemp = Double.MIN_VALUE;
+      for (JsonNode hour : this.hours) {
+        long dt = hour.get("dt").asLong() * 1000;
+        double temp = hour.get("main").get("temp").asDouble();
+        double humidity = hour.get("main").get("humidity").asDouble();
+        double pressure = hour.get("main").get("pressure").asDouble();
+        double feelsLike = hour.get("main").get("feels_like").asDouble();
+        double speed = hour.get("wind").get("speed").asDouble();
+        double deg = hour.get("wind").get("deg").asDouble();
+        double min = hour.get("main").get("temp_min").asDouble();
+        double max = hour.get("main").get("temp_max").asDouble();
+        String condition = hour.withArray("weather").get(0).get("description").asText();
+        String icon = hour.withArray("weather").get(0).get("icon").asText();
+        hours.put(
+            dt,
+            new WeatherInfo.HourWeatherInfo(
+                min, max, temp, feelsLike, humidity, pressure, speed, deg, icon, condition, dt));
+
+        minTemp = Math.min(minTemp, min);
+        maxTemp = Math.max(maxTemp, max);
+      }
+
+      return new WeatherInfo.DailyForecast(
+          dt,
+          dayOfWeek,
+          determinePrioritizedIcon(),
+          minTemp,
+          maxTemp,
+          getMostFrequentWeatherCondition(),
+          hours);
+    }
+
+    public void addHours(JsonNode hours) {
+      this.hours.add(hours);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.homio.addon.openweathermap.GeolocationCache.GeoPoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OpenWeatherCacheTest {
+
+  // more than two full groups of 20
+  private static final int CITIES = 45;
+
+  @TempDir Path storagePath;
+  private OpenWeatherStubServer server;
+  private OpenWeatherCache cache;
+  private final Set<String> cities = new LinkedHashSet<>();
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = new OpenWeatherStubServer();
+    cache =
+        new OpenWeatherCache(
+            new StubSettings(server.getUrl(), 60_000, false, 0.05),
+            storagePath,
+            OpenWeatherCacheTest::geocode);
+    for (int i = 0; i < CITIES; i++) {
+      cities.add("city-" + i);
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    cache.close();
+    server.close();
+  }
+
+  @Test
+  void coldRefreshLearnsCityIdsBySingleRequests() {
+    refresh();
+
+    assertEquals(CITIES, server.weatherCalls.get());
+    assertEquals(0, server.groupCalls.get());
+  }
+
+  @Test
+  void knownCitiesAreRefreshedByGroupsOfAtMost20() {
+    refresh();
+    Map<String, Long> cityIds = getCityIds();
+
+    refresh();
+
+    assertEquals(CITIES, server.weatherCalls.get(), "no single requests once ids are known");
+    assertEquals(3, server.groupCalls.get());
+    assertEquals(CITIES, server.groupIds.get());
+    assertTrue(server.maxGroupSize.get() <= 20, "group size " + server.maxGroupSize.get());
+    // every location got own entry of group response
+    for (String city : cities) {
+      CurrentWeather weather = cache.getCurrentWeather(city);
+      assertEquals(cityIds.get(city), weather.id(), city);
+      assertEquals("City-" + weather.id(), weather.city(), city);
+    }
+  }
+
+  @Test
+  void failedGroupFallsBackToSingleRequests() {
+    refresh();
+    Map<String, Long> cityIds = getCityIds();
+    server.withGroupFailure(true);
+
+    refresh();
+
+    assertEquals(3, server.failedCalls.get());
+    assertEquals(0, server.groupIds.get());
+    assertEquals(2 * CITIES, server.weatherCalls.get());
+    assertEquals(cityIds, getCityIds());
+  }
+
+  @Test
+  void oneCallSkipsGroupEndpoint() throws IOException {
+    cache.close();
+    cache =
+        new OpenWeatherCache(
+            new StubSettings(server.getUrl(), 60_000, true, 0.05),
+            storagePath.resolve("onecall"),
+            OpenWeatherCacheTest::geocode);
+
+    refresh();
+    refresh();
+
+    assertEquals(2 * CITIES, server.oneCallCalls.get());
+    assertEquals(0, server.groupCalls.get());
+    assertEquals(0, server.weatherCalls.get());
+    assertEquals(0, server.forecastCalls.get());
+    for (String city : cities) {
+      assertEquals(city, cache.getCurrentWeather(city).city());
+    }
+  }
+
+  private void refresh() {
+    CompletableFuture.allOf(
+            cache.refresh(cities, Set.of()).values().toArray(CompletableFuture[]::new))
+        .join();
+  }
+
+  private Map<String, Long> getCityIds() {
+    Map<String, Long> result = new HashMap<>();
+    for (String city : cities) {
+      result.put(city, cache.getCurrentWeather(city).id());
+    }
+    return result;
+  }
+
+  // spread cities over the globe so every city has own grid cell and OWM id
+  static GeoPoint geocode(String city) {
+    int index = Integer.parseInt(city.substring(city.indexOf('-') + 1));
+    return new GeoPoint(-60 + (index * 0.731) % 120, -180 + (index * 1.377) % 360);
+  }
+}
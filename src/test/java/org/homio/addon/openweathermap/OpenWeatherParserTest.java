@@ -0,0 +1,103 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.homio.addon.openweathermap.OpenWeatherParser.OneCall;
+import org.junit.jupiter.api.Test;
+
+// expected values are read from the same fixtures by Jackson tree model
+class OpenWeatherParserTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @Test
+  void parseCurrentWeather() throws IOException {
+    JsonNode json = OBJECT_MAPPER.readTree(Fixtures.WEATHER);
+    CurrentWeather weather =
+        OpenWeatherParser.parseCurrentWeather(Fixtures.stream(Fixtures.WEATHER));
+
+    assertEquals(json.get("id").asLong(), weather.id());
+    assertEquals(json.get("name").asText(), weather.city());
+    assertEquals(json.get("dt").asLong(), weather.dt());
+    assertEquals(json.at("/main/temp").asDouble(), weather.temperature());
+    assertEquals(json.at("/main/temp_min").asDouble(), weather.minTemperature());
+    assertEquals(json.at("/main/temp_max").asDouble(), weather.maxTemperature());
+    assertEquals(json.at("/weather/0/icon").asText(), weather.icon());
+    assertEquals(json.at("/weather/0/main").asText(), weather.condition());
+  }
+
+  @Test
+  void parseForecast() throws IOException {
+    JsonNode list = OBJECT_MAPPER.readTree(Fixtures.FORECAST).get("list");
+    ForecastData data = OpenWeatherParser.parseForecast(Fixtures.stream(Fixtures.FORECAST));
+
+    assertEquals(list.size(), data.size);
+    assertNull(data.daily);
+    for (int i = 0; i < data.size; i++) {
+      JsonNode item = list.get(i);
+      assertEquals(item.get("dt").asLong(), data.dt[i]);
+      assertEquals(item.at("/main/temp").asDouble(), data.temp[i]);
+      assertEquals(item.at("/main/temp_min").asDouble(), data.tempMin[i]);
+      assertEquals(item.at("/main/temp_max").asDouble(), data.tempMax[i]);
+      assertEquals(item.at("/weather/0/icon").asText(), data.icon[i]);
+    }
+  }
+
+  @Test
+  void parseOneCallCurrentWithTodayRange() throws IOException {
+    JsonNode json = OBJECT_MAPPER.readTree(Fixtures.ONE_CALL);
+    JsonNode current = json.get("current");
+    OneCall oneCall = OpenWeatherParser.parseOneCall(Fixtures.stream(Fixtures.ONE_CALL), "London");
+    CurrentWeather weather = oneCall.current();
+
+    assertEquals("London", weather.city());
+    assertEquals(0, weather.id());
+    assertEquals(current.get("dt").asLong(), weather.dt());
+    assertEquals(current.get("temp").asDouble(), weather.temperature());
+    assertEquals(current.get("feels_like").asDouble(), weather.feelsLike());
+    assertEquals(current.get("pressure").asDouble(), weather.pressure());
+    assertEquals(current.get("humidity").asDouble(), weather.humidity());
+    assertEquals(current.get("visibility").asDouble(), weather.visibility());
+    assertEquals(current.get("wind_speed").asDouble(), weather.windSpeed());
+    assertEquals(current.get("wind_deg").asDouble(), weather.windDegree());
+    assertEquals(current.get("clouds").asDouble(), weather.clouds());
+    assertEquals(current.get("sunrise").asLong(), weather.sunrise());
+    assertEquals(current.get("sunset").asLong(), weather.sunset());
+    assertEquals(current.at("/weather/0/icon").asText(), weather.icon());
+    assertEquals(current.at("/weather/0/main").asText(), weather.condition());
+    // One Call current has no min/max, today's daily summary provides them
+    assertEquals(json.at("/daily/0/temp/min").asDouble(), weather.minTemperature());
+    assertEquals(json.at("/daily/0/temp/max").asDouble(), weather.maxTemperature());
+  }
+
+  @Test
+  void parseOneCallHourlyAndDaily() throws IOException {
+    JsonNode json = OBJECT_MAPPER.readTree(Fixtures.ONE_CALL);
+    ForecastData hourly =
+        OpenWeatherParser.parseOneCall(Fixtures.stream(Fixtures.ONE_CALL), "London").forecast();
+
+    assertEquals(json.get("hourly").size(), hourly.size);
+    for (int i = 0; i < hourly.size; i++) {
+      JsonNode item = json.get("hourly").get(i);
+      assertEquals(item.get("dt").asLong(), hourly.dt[i]);
+      assertEquals(item.get("temp").asDouble(), hourly.temp[i]);
+      assertEquals(item.at("/weather/0/icon").asText(), hourly.icon[i]);
+    }
+    ForecastData daily = hourly.daily;
+    assertNotNull(daily);
+    assertEquals(json.get("daily").size(), daily.size);
+    for (int i = 0; i < daily.size; i++) {
+      JsonNode item = json.get("daily").get(i);
+      assertEquals(item.get("dt").asLong(), daily.dt[i]);
+      assertEquals(item.at("/temp/day").asDouble(), daily.temp[i]);
+      assertEquals(item.at("/temp/min").asDouble(), daily.tempMin[i]);
+      assertEquals(item.at("/temp/max").asDouble(), daily.tempMax[i]);
+      assertEquals(item.at("/weather/0/icon").asText(), daily.icon[i]);
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package org.homio.addon.openweathermap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Embedded stand-in of api.openweathermap.org which serves recorded fixtures with configurable
+ * latency, error and 429 rates. City id and name of current weather are derived from lat/lon.
+ */
+final class OpenWeatherStubServer implements AutoCloseable {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  final AtomicLong weatherCalls = new AtomicLong();
+  final AtomicLong forecastCalls = new AtomicLong();
+  final AtomicLong groupCalls = new AtomicLong();
+  final AtomicLong oneCallCalls = new AtomicLong();
+  final AtomicLong failedCalls = new AtomicLong();
+  final AtomicLong rateLimitedCalls = new AtomicLong();
+  // largest number of ids requested by single group call and number of ids of all group calls
+  final AtomicInteger maxGroupSize = new AtomicInteger();
+  final AtomicLong groupIds = new AtomicLong();
+
+  private final HttpServer server;
+  // platform threads: client side cache loads may pin all virtual thread carriers
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final ObjectNode weatherFixture;
+  private final ObjectNode oneCallFixture;
+  private volatile Duration latency = Duration.ZERO;
+  private volatile double errorRate;
+  private volatile double rateLimitRate;
+  private volatile int retryAfterSeconds = 1;
+  private volatile boolean groupFailure;
+
+  OpenWeatherStubServer() throws IOException {
+    weatherFixture = (ObjectNode) OBJECT_MAPPER.readTree(Fixtures.WEATHER);
+    oneCallFixture = (ObjectNode) OBJECT_MAPPER.readTree(Fixtures.ONE_CALL);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/data/2.5/weather", exchange -> handle(exchange, this::weather));
+    server.createContext("/data/2.5/forecast", exchange -> handle(exchange, this::forecast));
+    server.createContext(
+        "/data/2.5/group", exchange -> handle(exchange, groupFailure ? null : this::group));
+    server.createContext("/data/3.0/onecall", exchange -> handle(exchange, this::oneCall));
+    server.start();
+  }
+
+  static long cityId(double lat, double lon) {
+    return Math.floorMod(Double.hashCode(lat) * 31L + Double.hashCode(lon), 10_000_000L) + 1;
+  }
+
+  String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  long getTotalCalls() {
+    return weatherCalls.get() + forecastCalls.get() + groupCalls.get() + oneCallCalls.get();
+  }
+
+  OpenWeatherStubServer withLatency(Duration latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  OpenWeatherStubServer withErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  OpenWeatherStubServer withRateLimitRate(double rateLimitRate, int retryAfterSeconds) {
+    this.rateLimitRate = rateLimitRate;
+    this.retryAfterSeconds = retryAfterSeconds;
+    return this;
+  }
+
+  // group endpoint responds with 500, single city endpoints keep working
+  OpenWeatherStubServer withGroupFailure(boolean groupFailure) {
+    this.groupFailure = groupFailure;
+    return this;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private byte[] weather(Map<String, String> query) throws IOException {
+    weatherCalls.incrementAndGet();
+    double lat = Double.parseDouble(query.getOrDefault("lat", "0"));
+    double lon = Double.parseDouble(query.getOrDefault("lon", "0"));
+    return OBJECT_MAPPER.writeValueAsBytes(createWeather(cityId(lat, lon)));
+  }
+
+  private byte[] forecast(Map<String, String> query) {
+    forecastCalls.incrementAndGet();
+    return Fixtures.FORECAST;
+  }
+
+  private byte[] group(Map<String, String> query) throws IOException {
+    groupCalls.incrementAndGet();
+    ObjectNode response = OBJECT_MAPPER.createObjectNode();
+    ArrayNode list = response.putArray("list");
+    for (String id : query.getOrDefault("id", "").split(",")) {
+      if (!id.isEmpty()) {
+        list.add(createWeather(Long.parseLong(id)));
+      }
+    }
+    maxGroupSize.accumulateAndGet(list.size(), Math::max);
+    groupIds.addAndGet(list.size());
+    response.put("cnt", list.size());
+    return OBJECT_MAPPER.writeValueAsBytes(response);
+  }
+
+  private byte[] oneCall(Map<String, String> query) throws IOException {
+    oneCallCalls.incrementAndGet();
+    ObjectNode response = oneCallFixture.deepCopy();
+    ObjectNode current = (ObjectNode) response.get("current");
+    current.put("dt", System.currentTimeMillis() / 1000);
+    current.put("temp", Math.round(ThreadLocalRandom.current().nextDouble(-10, 30) * 100) / 100D);
+    return OBJECT_MAPPER.writeValueAsBytes(response);
+  }
+
+  private ObjectNode createWeather(long cityId) {
+    ObjectNode weather = weatherFixture.deepCopy();
+    weather.put("id", cityId);
+    weather.put("name", "City-" + cityId);
+    weather.put("dt", System.currentTimeMillis() / 1000);
+    ((ObjectNode) weather.get("main"))
+        .put("temp", Math.round(ThreadLocalRandom.current().nextDouble(-10, 30) * 100) / 100D);
+    return weather;
+  }
+
+  // null endpoint responds with error
+  private void handle(HttpExchange exchange, @Nullable Endpoint endpoint) throws IOException {
+    try (exchange) {
+      if (!latency.isZero()) {
+        Thread.sleep(latency.toMillis());
+      }
+      double random = ThreadLocalRandom.current().nextDouble();
+      if (random < rateLimitRate) {
+        rateLimitedCalls.incrementAndGet();
+        exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+        send(exchange, 429, "{\"cod\":429,\"message\":\"Too many requests\"}".getBytes());
+      } else if (endpoint == null || random < rateLimitRate + errorRate) {
+        failedCalls.incrementAndGet();
+        send(exchange, 500, "{\"cod\":500,\"message\":\"Internal error\"}".getBytes());
+      } else {
+        send(exchange, 200, endpoint.handle(parseQuery(exchange.getRequestURI().getRawQuery())));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream stream = exchange.getResponseBody()) {
+      stream.write(body);
+    }
+  }
+
+  private static Map<String, String> parseQuery(String query) {
+    Map<String, String> result = new HashMap<>();
+    if (query != null) {
+      for (String pair : query.split("&")) {
+        int index = pair.indexOf('=');
+        if (index > 0) {
+          result.put(
+              pair.substring(0, index),
+              URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    return result;
+  }
+
+  private interface Endpoint {
+    byte[] handle(Map<String, String> query) throws IOException;
+  }
+}
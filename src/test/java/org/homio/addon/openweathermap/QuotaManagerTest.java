@@ -0,0 +1,151 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.homio.addon.openweathermap.OpenWeatherClient.HttpStatusException;
+import org.homio.addon.openweathermap.QuotaManager.CircuitState;
+import org.homio.addon.openweathermap.QuotaManager.RequestRejectedException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class QuotaManagerTest {
+
+  @TempDir Path storagePath;
+  private final AtomicLong clock =
+      new AtomicLong(Instant.parse("2026-10-18T10:00:00Z").toEpochMilli());
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @Test
+  void rateLimitHonorsRetryAfter() {
+    QuotaManager quota = create(60);
+
+    fail(quota, new HttpStatusException(429, Duration.ofMinutes(2), "Too many requests"));
+
+    assertEquals(
+        Instant.ofEpochMilli(clock.get()).plus(Duration.ofMinutes(2)),
+        quota.getUsage().blockedUntil());
+    // Retry-After is longer than request may wait, request is rejected without network call
+    assertThrows(RequestRejectedException.class, () -> quota.execute(this::request));
+    assertEquals(1, requests.get());
+    assertFalse(quota.isCircuitOpen());
+
+    clock.addAndGet(Duration.ofMinutes(2).toMillis());
+    assertEquals("ok", quota.execute(this::request));
+  }
+
+  @Test
+  void circuitOpensAfterFiveFailures() {
+    QuotaManager quota = create(60);
+
+    for (int i = 0; i < 4; i++) {
+      fail(quota, new HttpStatusException(500, null, "Internal error"));
+      assertFalse(quota.isCircuitOpen());
+    }
+    fail(quota, new HttpStatusException(500, null, "Internal error"));
+
+    assertEquals(CircuitState.OPEN, quota.getUsage().state());
+    assertThrows(RequestRejectedException.class, () -> quota.execute(this::request));
+    assertEquals(5, requests.get());
+  }
+
+  @Test
+  void halfOpenCircuitSendsSingleTrial() throws Exception {
+    QuotaManager quota = create(60);
+    for (int i = 0; i < 5; i++) {
+      fail(quota, new HttpStatusException(503, null, "Unavailable"));
+    }
+    clock.addAndGet(Duration.ofMinutes(1).toMillis());
+
+    CountDownLatch trialStarted = new CountDownLatch(1);
+    CountDownLatch trialRelease = new CountDownLatch(1);
+    CompletableFuture<String> trial =
+        CompletableFuture.supplyAsync(
+            () ->
+                quota.execute(
+                    () -> {
+                      trialStarted.countDown();
+                      await(trialRelease);
+                      return request();
+                    }));
+    trialStarted.await();
+
+    assertEquals(CircuitState.HALF_OPEN, quota.getUsage().state());
+    assertThrows(RequestRejectedException.class, () -> quota.execute(this::request));
+    trialRelease.countDown();
+    assertEquals("ok", trial.get());
+    assertEquals(CircuitState.CLOSED, quota.getUsage().state());
+    assertEquals("ok", quota.execute(this::request));
+  }
+
+  @Test
+  void clientErrorsDontOpenCircuit() {
+    QuotaManager quota = create(60);
+
+    for (int i = 0; i < 10; i++) {
+      fail(quota, new HttpStatusException(404, null, "city not found"));
+    }
+
+    assertFalse(quota.isCircuitOpen());
+    assertNull(quota.getUsage().blockedUntil());
+    assertEquals("ok", quota.execute(this::request));
+  }
+
+  @Test
+  void monthlyCallsSurviveRestart() {
+    QuotaManager quota = create(60);
+    quota.execute(this::request);
+    quota.execute(this::request);
+    quota.save();
+
+    assertEquals(2, create(60).getUsage().monthCalls());
+
+    clock.addAndGet(Duration.ofDays(31).toMillis());
+    assertEquals(0, create(60).getUsage().monthCalls());
+  }
+
+  private QuotaManager create(int callsPerMinute) {
+    return new QuotaManager(
+        () -> callsPerMinute,
+        () -> Integer.MAX_VALUE,
+        storagePath.resolve("quota.json"),
+        Runnable::run,
+        clock::get);
+  }
+
+  private String request() {
+    requests.incrementAndGet();
+    return "ok";
+  }
+
+  private void fail(QuotaManager quota, HttpStatusException ex) {
+    assertSame(
+        ex,
+        assertThrows(
+            HttpStatusException.class,
+            () ->
+                quota.execute(
+                    () -> {
+                      requests.incrementAndGet();
+                      throw ex;
+                    })));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.homio.addon.openweathermap;
+
+/** Cache settings of tests and load test pointing to OpenWeatherStubServer. */
+record StubSettings(String apiUrl, int callsPerMinute, boolean oneCall, double locationGrid)
+    implements OpenWeatherCache.Settings {
+
+  @Override
+  public String getApiUrl() {
+    return apiUrl;
+  }
+
+  @Override
+  public String getApiKey() {
+    return "stub";
+  }
+
+  @Override
+  public String getUnit() {
+    return "metric";
+  }
+
+  @Override
+  public String getLang() {
+    return "en";
+  }
+
+  @Override
+  public double getLocationGrid() {
+    return locationGrid;
+  }
+
+  @Override
+  public boolean isOneCall() {
+    return oneCall;
+  }
+
+  @Override
+  public int getRefreshRate() {
+    return 10;
+  }
+
+  @Override
+  public int getMaxStaleness() {
+    return 180;
+  }
+
+  @Override
+  public int getCallsPerMinute() {
+    return callsPerMinute;
+  }
+
+  @Override
+  public int getCallsPerMonth() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int getHistoryRetention() {
+    return 30;
+  }
+
+  @Override
+  public int getHistoryFullResolution() {
+    return 2;
+  }
+
+  @Override
+  public boolean isRefreshIcons() {
+    return false;
+  }
+}
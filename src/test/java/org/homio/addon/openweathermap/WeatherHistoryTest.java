@@ -0,0 +1,62 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WeatherHistoryTest {
+
+  private static final long HOUR = 3600;
+  private static final long DAY = 24 * HOUR;
+  // 2024-10-18 00:00 UTC
+  private static final long NOW = 1729209600;
+
+  @TempDir Path storagePath;
+
+  @Test
+  void compactWithoutHistoryDirectory() {
+    Path directory = storagePath.resolve("history");
+    WeatherHistory history = new WeatherHistory(directory);
+
+    history.compact(NOW, 30 * DAY, 2 * DAY);
+
+    assertFalse(Files.exists(directory));
+  }
+
+  @Test
+  void compactInactiveLocations() {
+    Path directory = storagePath.resolve("history");
+    WeatherHistory writer = new WeatherHistory(directory);
+    // every 10 minutes for 5 days
+    for (long dt = NOW - 5 * DAY; dt < NOW; dt += 600) {
+      writer.append("a", weather(dt));
+      writer.append("b", weather(dt));
+    }
+    writer.close();
+
+    // files are not opened by anyone after restart
+    WeatherHistory history = new WeatherHistory(directory);
+    history.compact(NOW, 4 * DAY, 2 * DAY);
+
+    for (String location : List.of("a", "b")) {
+      List<CurrentWeather> records = history.read(location, "City", 0, NOW);
+      // 2 days hourly, 2 days every 10 minutes
+      assertEquals(2 * 24 + 2 * 24 * 6, records.size(), location);
+      assertEquals(NOW - 4 * DAY + HOUR - 600, records.get(0).dt(), location);
+      assertEquals(NOW - 600, records.get(records.size() - 1).dt(), location);
+      assertEquals("City", records.get(0).city());
+    }
+    history.close();
+  }
+
+  private static CurrentWeather weather(long dt) {
+    return new CurrentWeather(
+        1, dt, "a", 10, 9, 8, 11, 1012, 80, 10000, 4, 240, 90, 0, dt - HOUR, dt + HOUR, "04d",
+        "Clouds");
+  }
+}
@@ -0,0 +1,179 @@
+package org.homio.addon.openweathermap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.SneakyThrows;
+import org.homio.api.service.WeatherEntity.WeatherInfo;
+import org.junit.jupiter.api.Test;
+
+class WidgetProtocolTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String GROUP = "London/metric/en";
+
+  private final AtomicLong clock = new AtomicLong();
+  private final WidgetProtocol protocol =
+      new WidgetProtocol(Map.of("01d", "data:01d", "02d", "data:02d")::get, clock::get);
+
+  @Test
+  void fullThenDeltaChain() {
+    List<JsonNode> messages = new ArrayList<>();
+    assertTrue(protocol.subscribe(GROUP, "w1", store(messages), info(10, "01d")));
+
+    assertEquals(1, protocol.publish(GROUP, info(11, "01d")));
+    assertEquals(1, protocol.publish(GROUP, info(12, "01d")));
+
+    assertEquals(3, messages.size());
+    JsonNode full = messages.get(0);
+    assertTrue(full.get("full").asBoolean());
+    assertEquals(10, full.get("current").get("temperature").asDouble());
+    for (int i = 1; i < messages.size(); i++) {
+      JsonNode delta = messages.get(i);
+      assertFalse(delta.has("full"));
+      assertEquals(messages.get(i - 1).get("v").asLong(), delta.get("base").asLong());
+      // only changed fields are sent
+      assertEquals(List.of("temperature"), fieldNames(delta.get("current")));
+    }
+    assertEquals(12, messages.get(2).get("current").get("temperature").asDouble());
+  }
+
+  @Test
+  void unchangedDataIsNotPushed() {
+    List<JsonNode> messages = new ArrayList<>();
+    protocol.subscribe(GROUP, "w1", store(messages), info(10, "01d"));
+
+    assertEquals(0, protocol.publish(GROUP, info(10, "01d")));
+    assertEquals(0, protocol.publish("Paris/metric/en", info(10, "01d")));
+    assertEquals(1, messages.size());
+  }
+
+  @Test
+  void subscribeMidTickGetsCurrentVersionThenDelta() {
+    List<JsonNode> first = new ArrayList<>();
+    protocol.subscribe(GROUP, "w1", store(first), info(10, "01d"));
+    protocol.publish(GROUP, info(11, "01d"));
+
+    // weather was loaded before tick advanced group, widget still gets snapshot of latest version
+    List<JsonNode> second = new ArrayList<>();
+    protocol.subscribe(GROUP, "w2", store(second), info(10, "01d"));
+    JsonNode full = second.get(0);
+    assertEquals(first.get(1).get("v").asLong(), full.get("v").asLong());
+    assertEquals(11, full.get("current").get("temperature").asDouble());
+
+    assertEquals(2, protocol.publish(GROUP, info(12, "01d")));
+    assertEquals(full.get("v").asLong(), second.get(1).get("base").asLong());
+    assertEquals(first.get(2).get("v").asLong(), second.get(1).get("v").asLong());
+  }
+
+  @Test
+  void failedPushIsResyncedWithFull() {
+    List<JsonNode> messages = new ArrayList<>();
+    boolean[] fail = {false};
+    Consumer<WidgetPayload> store =
+        payload -> {
+          if (fail[0]) {
+            throw new IllegalStateException("disconnected");
+          }
+          messages.add(parse(payload));
+        };
+    protocol.subscribe(GROUP, "w1", store, info(10, "01d"));
+
+    fail[0] = true;
+    assertEquals(0, protocol.publish(GROUP, info(11, "01d")));
+    fail[0] = false;
+    // widget missed version, gets full even though data didn't change
+    assertEquals(1, protocol.publish(GROUP, info(11, "01d")));
+    assertTrue(messages.get(1).get("full").asBoolean());
+    assertEquals(11, messages.get(1).get("current").get("temperature").asDouble());
+
+    assertEquals(1, protocol.publish(GROUP, info(12, "01d")));
+    assertEquals(messages.get(1).get("v").asLong(), messages.get(2).get("base").asLong());
+  }
+
+  @Test
+  void periodicResync() {
+    List<JsonNode> messages = new ArrayList<>();
+    protocol.subscribe(GROUP, "w1", store(messages), info(10, "01d"));
+
+    clock.addAndGet(WidgetProtocol.RESYNC_INTERVAL);
+    assertEquals(1, protocol.publish(GROUP, info(10, "01d")));
+    assertTrue(messages.get(1).get("full").asBoolean());
+    assertEquals(0, protocol.publish(GROUP, info(10, "01d")));
+  }
+
+  @Test
+  void unsubscribeOnlyRemovesSameStore() {
+    List<JsonNode> first = new ArrayList<>();
+    List<JsonNode> second = new ArrayList<>();
+    Consumer<WidgetPayload> firstStore = store(first);
+    protocol.subscribe(GROUP, "w1", firstStore, info(10, "01d"));
+    protocol.subscribe("London/imperial/en", "w1", store(second), info(50, "01d"));
+
+    protocol.unsubscribe("w1", firstStore);
+    assertEquals(0, protocol.publish(GROUP, info(11, "01d")));
+    assertEquals(1, protocol.publish("London/imperial/en", info(51, "01d")));
+    assertEquals(1, first.size());
+    assertEquals(2, second.size());
+  }
+
+  @Test
+  void iconsDelivery() {
+    List<JsonNode> messages = new ArrayList<>();
+    protocol.subscribe(GROUP, "w1", store(messages), info(10, "01d"));
+    protocol.publish(GROUP, info(11, "01d"));
+    protocol.publish(GROUP, info(11, "02d"));
+
+    assertEquals("data:01d", messages.get(0).get("icons").get("01d").asText());
+    // delta sends only icons widget doesn't have yet
+    assertFalse(messages.get(1).has("icons"));
+    assertEquals(List.of("02d"), fieldNames(messages.get(2).get("icons")));
+  }
+
+  @Test
+  void fullWithUnknownIconIsNotCached() {
+    List<WidgetPayload> payloads = new ArrayList<>();
+    protocol.subscribe(GROUP, "w1", payloads::add, info(10, "99d"));
+    protocol.subscribe(GROUP, "w2", payloads::add, info(10, "99d"));
+    protocol.publish(GROUP, info(10, "01d"));
+    protocol.subscribe(GROUP, "w3", payloads::add, info(10, "01d"));
+    protocol.subscribe(GROUP, "w4", payloads::add, info(10, "01d"));
+
+    assertNotSame(payloads.get(0), payloads.get(1));
+    assertEquals(0, parse(payloads.get(0)).get("icons").size());
+    assertSame(payloads.get(payloads.size() - 2), payloads.get(payloads.size() - 1));
+  }
+
+  private static Consumer<WidgetPayload> store(List<JsonNode> messages) {
+    return payload -> messages.add(parse(payload));
+  }
+
+  private static WeatherInfo info(double temperature, String icon) {
+    WeatherInfo info = new WeatherInfo();
+    info.setCity("London");
+    info.setTemperature(temperature);
+    info.setIcon(icon);
+    return info;
+  }
+
+  private static List<String> fieldNames(JsonNode node) {
+    List<String> names = new ArrayList<>();
+    node.fieldNames().forEachRemaining(names::add);
+    return names;
+  }
+
+  @SneakyThrows
+  private static JsonNode parse(WidgetPayload payload) {
+    return OBJECT_MAPPER.readTree(payload.toString());
+  }
+}